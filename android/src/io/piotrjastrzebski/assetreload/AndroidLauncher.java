@@ -13,21 +13,13 @@ public class AndroidLauncher extends AndroidApplication {
 		initialize(new AssetsGame(new AndroidPlatform()), config);
 	}
 
-	private static class AndroidPlatform implements Platform {
-		@Override public void start (Listener listener, boolean watch) {
-
-		}
-
-		@Override public void processAssets (String type) {
-
-		}
-
-		@Override public void processAssetsAsync (String particle) {
-
-		}
-
-		@Override public void dispose () {
-
+	/**
+	 * Assets are processed on desktop and sent over, run 'adb forward tcp:47853 tcp:47853' and desktop with
+	 * '--device 47853' to send them. Received ones are kept in local storage and survive restarts
+	 */
+	private static class AndroidPlatform extends RemotePlatform {
+		AndroidPlatform () {
+			super(null, DeltaProtocol.DEFAULT_PORT);
 		}
 	}
 }
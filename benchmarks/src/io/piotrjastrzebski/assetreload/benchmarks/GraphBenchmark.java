@@ -0,0 +1,57 @@
+package io.piotrjastrzebski.assetreload.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectSet;
+import io.piotrjastrzebski.assetreload.AssetGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dependency fan-out, what we walk when a shared asset like the atlas changes
+ *
+ * Single root with fanOut dependents, each of them with fanOut dependents and so on, depth levels deep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+	@Param({"10", "100", "1000"})
+	public int fanOut;
+	@Param({"1", "2"})
+	public int depth;
+
+	private AssetGraph graph;
+
+	@Setup
+	public void setup () {
+		graph = new AssetGraph();
+		Array<String> level = new Array<>();
+		level.add("root");
+		for (int d = 0; d < depth; d++) {
+			Array<String> next = new Array<>();
+			for (String parent : level) {
+				Array<String> deps = new Array<>();
+				deps.add(parent);
+				for (int i = 0; i < fanOut; i++) {
+					String name = parent + "/" + i;
+					graph.setDependencies(name, deps);
+					next.add(name);
+				}
+			}
+			level = next;
+		}
+	}
+
+	@Benchmark
+	public Array<String> collectAndSort () {
+		ObjectSet<String> affected = new ObjectSet<>();
+		graph.collectDependents("root", affected);
+		Array<String> sorted = new Array<>(affected.size);
+		graph.sort(affected, sorted);
+		return sorted;
+	}
+}
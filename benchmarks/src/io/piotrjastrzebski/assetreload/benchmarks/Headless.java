@@ -0,0 +1,59 @@
+package io.piotrjastrzebski.assetreload.benchmarks;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+
+/**
+ * Headless libGDX for benchmarks, with GL calls that do nothing
+ *
+ * Textures, meshes and shaders can be created and used, so we measure everything we do on the cpu side without
+ * a gpu. Time spent in the driver is not part of the numbers.
+ */
+public class Headless {
+	private static boolean started;
+
+	private Headless () {}
+
+	public static synchronized void start () {
+		if (started) return;
+		started = true;
+		new HeadlessApplication(new ApplicationAdapter() {});
+		Gdx.gl = Gdx.gl20 = noopGL();
+		// we dont have real uniforms, nothing to complain about
+		ShaderProgram.pedantic = false;
+		Gdx.app.setLogLevel(Application.LOG_ERROR);
+	}
+
+	/**
+	 * @return GL20 that hands out ids, reports successful shader compiles and does nothing else
+	 */
+	public static GL20 noopGL () {
+		return (GL20)Proxy.newProxyInstance(GL20.class.getClassLoader(), new Class[] {GL20.class}, new InvocationHandler() {
+			private int ids = 1;
+
+			@Override public Object invoke (Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("glGetShaderiv") || name.equals("glGetProgramiv")) {
+					// compile and link status
+					((IntBuffer)args[2]).put(0, 1);
+					return null;
+				}
+				Class type = method.getReturnType();
+				if (type == int.class) return name.startsWith("glGen") || name.startsWith("glCreate") ? ids++ : 0;
+				if (type == boolean.class) return false;
+				if (type == float.class) return 0f;
+				if (type == String.class) return "";
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,106 @@
+package io.piotrjastrzebski.assetreload.benchmarks;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.loaders.ParticleEffectLoader;
+import com.badlogic.gdx.assets.loaders.resolvers.AbsoluteFileHandleResolver;
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker;
+import com.badlogic.gdx.utils.Array;
+import io.piotrjastrzebski.assetreload.AssetManagers;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reload through {@link AssetManagers}, from load to new generation in place and the old one unloaded
+ *
+ * Every particle effect depends on the atlas, so reloading the atlas reloads all of them as well.
+ * Atlas and an effect changed together are reloaded in one batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReloadBenchmark {
+	@Param({"64", "512"})
+	public int images;
+	@Param({"8", "64"})
+	public int particles;
+
+	private Path root;
+	private AssetManagers manager;
+	private AssetDescriptor<TextureAtlas> atlas;
+	private Array<AssetDescriptor<ParticleEffect>> effects = new Array<>();
+
+	@Setup
+	public void setup () throws IOException {
+		Headless.start();
+		root = Files.createTempDirectory("reload-benchmark");
+		SyntheticAssets.generate(root, images, particles, 4, 42);
+		Path pack = root.resolve("pack");
+		TexturePacker.process(root.resolve("atlas").toString(), pack.toString(), "assets");
+
+		manager = new AssetManagers(new AbsoluteFileHandleResolver());
+		atlas = new AssetDescriptor<>(path(pack.resolve("assets.atlas")), TextureAtlas.class);
+		manager.load(atlas);
+		for (int i = 0; i < particles; i++) {
+			ParticleEffectLoader.ParticleEffectParameter params = new ParticleEffectLoader.ParticleEffectParameter();
+			params.atlasFile = atlas.fileName;
+			AssetDescriptor<ParticleEffect> effect = new AssetDescriptor<>(path(SyntheticAssets.particle(root, i)),
+				ParticleEffect.class, params);
+			effects.add(effect);
+			manager.load(effect);
+		}
+		finish();
+	}
+
+	@Benchmark
+	public AssetManagers.Generation reloadAtlas () {
+		manager.load(atlas);
+		finish();
+		return manager.getGeneration(atlas);
+	}
+
+	@Benchmark
+	public AssetManagers.Generation reloadParticle () {
+		AssetDescriptor<ParticleEffect> effect = effects.first();
+		manager.load(effect);
+		finish();
+		return manager.getGeneration(effect);
+	}
+
+	@Benchmark
+	public AssetManagers.Generation reloadAtlasAndParticle () {
+		// effect depends on the atlas, in one batch it is loaded once
+		Array<AssetDescriptor> batch = new Array<>(2);
+		batch.add(atlas);
+		batch.add(effects.first());
+		manager.load(batch);
+		finish();
+		return manager.getGeneration(atlas);
+	}
+
+	private void finish () {
+		while (!manager.update()) {
+			Thread.yield();
+		}
+		// another update to make sure retired generations are gone
+		manager.update();
+	}
+
+	@TearDown
+	public void tearDown () throws IOException {
+		manager.dispose();
+		SyntheticAssets.delete(root);
+	}
+
+	private static String path (Path path) {
+		return path.toAbsolutePath().toString().replace('\\', '/');
+	}
+}
@@ -0,0 +1,99 @@
+package io.piotrjastrzebski.assetreload.benchmarks;
+
+import com.artemis.EntityEdit;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.*;
+import io.piotrjastrzebski.assetreload.AssetsGame;
+import io.piotrjastrzebski.assetreload.RegionHandles;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single frame of {@link AssetsGame.Renderer}, with sprites and particle effects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RendererBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int sprites;
+	@Param({"0", "16"})
+	public int effects;
+
+	private Path root;
+	private Texture texture;
+	private SpriteBatch batch;
+	private World world;
+
+	@Setup
+	public void setup () throws IOException {
+		Headless.start();
+		root = Files.createTempDirectory("renderer-benchmark");
+		SyntheticAssets.generate(root, 1, 1, 4, 42);
+		texture = new Texture(new Pixmap(64, 64, Pixmap.Format.RGBA8888));
+		TextureAtlas atlas = new TextureAtlas();
+		atlas.addRegion("sprite", texture, 0, 0, 64, 64);
+		RegionHandles regions = new RegionHandles();
+		int region = regions.handle("sprite");
+		regions.rebind(atlas, null);
+		ParticleEffect template = new ParticleEffect();
+		template.loadEmitters(Gdx.files.absolute(SyntheticAssets.particle(root, 0).toString()));
+		for (ParticleEmitter emitter : template.getEmitters()) {
+			emitter.setSprite(new Sprite(texture));
+		}
+		template.setEmittersCleanUpBlendFunction(false);
+
+		batch = new SpriteBatch();
+		WorldConfiguration config = new WorldConfiguration();
+		config.register(batch);
+		config.register(regions);
+		config.setSystem(AssetsGame.Renderer.class);
+		world = new World(config);
+		Random random = new Random(42);
+		for (int i = 0; i < sprites + effects; i++) {
+			EntityEdit edit = world.createEntity().edit();
+			AssetsGame.Renderer.Renderable renderable = edit.create(AssetsGame.Renderer.Renderable.class);
+			renderable.x = random.nextFloat() * 800;
+			renderable.y = random.nextFloat() * 600;
+			renderable.progress = random.nextFloat();
+			if (i < sprites) {
+				renderable.type = TextureRegion.class;
+				renderable.region = region;
+			} else {
+				renderable.type = ParticleEffect.class;
+				renderable.effect = new ParticleEffect(template);
+				renderable.effect.start();
+			}
+		}
+		// let particle effects fill up
+		for (int i = 0; i < 60; i++) {
+			frame();
+		}
+	}
+
+	@Benchmark
+	public void frame () {
+		world.setDelta(1f / 60f);
+		world.process();
+	}
+
+	@TearDown
+	public void tearDown () throws IOException {
+		world.dispose();
+		batch.dispose();
+		texture.dispose();
+		SyntheticAssets.delete(root);
+	}
+}
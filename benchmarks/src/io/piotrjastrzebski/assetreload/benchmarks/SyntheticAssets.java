@@ -0,0 +1,137 @@
+package io.piotrjastrzebski.assetreload.benchmarks;
+
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.ParticleEmitter;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generates raw asset trees that look like raw-assets, with as many files as we want
+ *
+ * Images go to atlas/group-N/, with a pack.json in atlas/, particle effects go to particles/ and use random images
+ * from the atlas. Same seed gives the same tree. Images are written with ImageIO, so no natives are needed.
+ */
+public class SyntheticAssets {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** images per group directory */
+	public static final int GROUP_SIZE = 32;
+
+	private SyntheticAssets () {}
+
+	/**
+	 * @param root      directory to generate in, must not exist or be empty
+	 * @param images    number of images in the atlas directory
+	 * @param particles number of particle effects
+	 * @param emitters  number of emitters in each particle effect
+	 */
+	public static void generate (Path root, int images, int particles, int emitters, long seed) throws IOException {
+		Random random = new Random(seed);
+		Path atlas = root.resolve("atlas");
+		Files.createDirectories(atlas);
+		Files.write(atlas.resolve("pack.json"), ("{\n"
+			+ "    maxWidth: 1024,\n"
+			+ "    maxHeight: 1024,\n"
+			+ "    paddingX: 2,\n"
+			+ "    paddingY: 2,\n"
+			+ "    flattenPaths: true,\n"
+			+ "    combineSubdirectories: true,\n"
+			+ "    filterMin: Nearest,\n"
+			+ "    filterMag: Nearest,\n"
+			+ "}").getBytes(UTF_8));
+		for (int i = 0; i < images; i++) {
+			Path image = image(root, i);
+			Files.createDirectories(image.getParent());
+			int width = 8 + random.nextInt(57);
+			int height = 8 + random.nextInt(57);
+			BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			int color = 0xff000000 | random.nextInt(0xffffff);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					img.setRGB(x, y, random.nextInt(8) == 0 ? 0xffffffff : color);
+				}
+			}
+			ImageIO.write(img, "png", image.toFile());
+		}
+
+		Path dir = root.resolve("particles");
+		Files.createDirectories(dir);
+		for (int i = 0; i < particles; i++) {
+			ParticleEffect effect = new ParticleEffect();
+			for (int j = 0; j < emitters; j++) {
+				ParticleEmitter emitter = new ParticleEmitter();
+				emitter.setName("emitter-" + j);
+				emitter.setImagePath(image(root, random.nextInt(Math.max(images, 1))).getFileName().toString());
+				emitter.setMaxParticleCount(50 + random.nextInt(150));
+				emitter.setContinuous(true);
+				emitter.getEmission().setHigh(20 + random.nextInt(80));
+				emitter.getLife().setHigh(500 + random.nextInt(1500));
+				emitter.getScale().setHigh(8, 32);
+				emitter.getVelocity().setActive(true);
+				emitter.getVelocity().setHigh(32, 128);
+				emitter.getAngle().setActive(true);
+				emitter.getAngle().setHigh(0, 360);
+				effect.getEmitters().add(emitter);
+			}
+			StringWriter writer = new StringWriter();
+			effect.save(writer);
+			Files.write(particle(root, i), writer.toString().getBytes(UTF_8));
+		}
+	}
+
+	/**
+	 * @return path of image with given index, regions are named after the file
+	 */
+	public static Path image (Path root, int index) {
+		return root.resolve("atlas/group-" + index / GROUP_SIZE + "/image-" + index + ".png");
+	}
+
+	public static Path particle (Path root, int index) {
+		return root.resolve("particles/effect-" + index + ".p");
+	}
+
+	/**
+	 * Changes content of given image without changing its size, like a quick edit would
+	 */
+	public static void touch (Path image, int seed) throws IOException {
+		BufferedImage img = ImageIO.read(image.toFile());
+		int x = seed % img.getWidth();
+		int y = (seed / img.getWidth()) % img.getHeight();
+		img.setRGB(x, y, ~img.getRGB(x, y) | 0xff000000);
+		ImageIO.write(img, "png", image.toFile());
+	}
+
+	public static void delete (Path root) throws IOException {
+		if (!Files.exists(root)) return;
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override public FileVisitResult postVisitDirectory (Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Generates a tree outside of benchmarks, to try the pipeline on
+	 *
+	 * Usage: SyntheticAssets root images particles emitters
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: SyntheticAssets root images particles emitters");
+			return;
+		}
+		generate(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), 42);
+	}
+}
@@ -0,0 +1,85 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import io.piotrjastrzebski.assetreload.BinaryAtlas;
+import io.piotrjastrzebski.assetreload.benchmarks.Headless;
+import io.piotrjastrzebski.assetreload.benchmarks.SyntheticAssets;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Atlas with lots of regions, from file to {@link TextureAtlas}, in text and in {@link BinaryAtlas} format
+ *
+ * Pages are loaded already, as they are when an atlas is reloaded, so this is what the loader adds on top of them.
+ * Lives in desktop package, as that is where the writer is
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtlasParseBenchmark {
+	@Param({"1000", "20000"})
+	public int regions;
+
+	private Path root;
+	private FileHandle text;
+	private FileHandle binary;
+	private Texture texture;
+
+	@Setup
+	public void setup () throws IOException {
+		Headless.start();
+		root = Files.createTempDirectory("atlas-benchmark");
+		StringBuilder atlas = new StringBuilder("\nassets.png\nsize: 4096, 4096\nformat: RGBA8888\nfilter: Nearest,Nearest\nrepeat: none\n");
+		for (int i = 0; i < regions; i++) {
+			atlas.append("region-").append(i).append('\n')
+				.append("  rotate: false\n")
+				.append("  xy: ").append(i % 256 * 16).append(", ").append(i / 256 * 16).append('\n')
+				.append("  size: 14, 14\n")
+				.append("  orig: 16, 16\n")
+				.append("  offset: 1, 1\n")
+				.append("  index: -1\n");
+		}
+		Path textFile = root.resolve("assets.atlas");
+		Files.write(textFile, atlas.toString().getBytes(Charset.forName("UTF-8")));
+		Path binaryFile = root.resolve(BinaryAtlas.binaryFile("assets.atlas"));
+		Files.write(binaryFile, BinaryAtlasWriter.encode(textFile));
+		text = new FileHandle(textFile.toFile());
+		binary = new FileHandle(binaryFile.toFile());
+		texture = new Texture(1, 1, Pixmap.Format.RGBA8888);
+	}
+
+	@TearDown
+	public void tearDown () throws IOException {
+		texture.dispose();
+		SyntheticAssets.delete(root);
+	}
+
+	@Benchmark
+	public TextureAtlas text () {
+		TextureAtlas.TextureAtlasData data = new TextureAtlas.TextureAtlasData(text, text.parent(), false);
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			page.texture = texture;
+		}
+		return new TextureAtlas(data);
+	}
+
+	@Benchmark
+	public TextureAtlas binary () {
+		BinaryAtlas data = new BinaryAtlas(binary, binary.parent());
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			page.texture = texture;
+		}
+		return data.load(false);
+	}
+}
@@ -0,0 +1,74 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import io.piotrjastrzebski.assetreload.benchmarks.Headless;
+import io.piotrjastrzebski.assetreload.benchmarks.SyntheticAssets;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileSync} of a raw atlas tree, after a single file changed and when nothing did
+ *
+ * Lives in desktop package, as that is where pipeline classes are
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSyncBenchmark {
+	@State(Scope.Benchmark)
+	public static class Tree {
+		@Param({"256", "4096"})
+		public int images;
+		@Param({"true", "false"})
+		public boolean links;
+
+		Path root;
+		FileSync sync;
+
+		@Setup
+		public void setup () throws IOException {
+			Headless.start();
+			root = Files.createTempDirectory("sync-benchmark");
+			SyntheticAssets.generate(root.resolve("raw"), images, 0, 0, 42);
+			sync = new FileSync(root.resolve("raw/atlas"), root.resolve("out"), root.resolve("cache/sync.json"));
+			sync.setLinks(links);
+			sync.sync();
+		}
+
+		@TearDown
+		public void tearDown () throws IOException {
+			SyntheticAssets.delete(root);
+		}
+	}
+
+	/**
+	 * Single image changed since last sync
+	 */
+	@State(Scope.Benchmark)
+	public static class Changed extends Tree {
+		private int touches;
+
+		@Setup(Level.Invocation)
+		public void touch () throws IOException {
+			SyntheticAssets.touch(SyntheticAssets.image(root.resolve("raw"), touches % images), touches++);
+		}
+	}
+
+	@Benchmark
+	public FileSync.Result syncChanged (Changed tree) throws IOException {
+		return tree.sync.sync();
+	}
+
+	/**
+	 * Nothing changed, which is what most syncs of a big tree look like
+	 */
+	@Benchmark
+	public FileSync.Result syncUnchanged (Tree tree) throws IOException {
+		return tree.sync.sync();
+	}
+}
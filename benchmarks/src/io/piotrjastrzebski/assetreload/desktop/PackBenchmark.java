@@ -0,0 +1,111 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import io.piotrjastrzebski.assetreload.benchmarks.Headless;
+import io.piotrjastrzebski.assetreload.benchmarks.SyntheticAssets;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IncrementalAtlasPacker} repacking after a single image changed, packing everything from scratch, and
+ * checking an atlas that didn't change, as on every start
+ *
+ * Lives in desktop package, as that is where pipeline classes are
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PackBenchmark {
+	@State(Scope.Benchmark)
+	public static class Atlas {
+		@Param({"64", "512"})
+		public int images;
+
+		Path root;
+		IncrementalAtlasPacker packer;
+		int version;
+		private int touches;
+
+		@Setup
+		public void setup () throws IOException {
+			Headless.start();
+			root = Files.createTempDirectory("pack-benchmark");
+			SyntheticAssets.generate(root.resolve("raw"), images, 0, 0, 42);
+			packer = packer();
+			packer.pack();
+			packer.publish(++version);
+		}
+
+		IncrementalAtlasPacker packer () throws IOException {
+			Path output = root.resolve("pack");
+			Files.createDirectories(output);
+			return new IncrementalAtlasPacker(root.resolve("raw/atlas"), output, "assets", root.resolve("cache"));
+		}
+
+		@Setup(Level.Invocation)
+		public void touch () throws IOException {
+			SyntheticAssets.touch(SyntheticAssets.image(root.resolve("raw"), touches % images), touches++);
+		}
+
+		@TearDown
+		public void tearDown () throws IOException {
+			SyntheticAssets.delete(root);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Unchanged {
+		@Param({"64", "512"})
+		public int images;
+
+		Path root;
+		IncrementalAtlasPacker packer;
+
+		@Setup
+		public void setup () throws IOException {
+			Headless.start();
+			root = Files.createTempDirectory("pack-benchmark");
+			SyntheticAssets.generate(root.resolve("raw"), images, 0, 0, 42);
+			packer = packer();
+			packer.pack();
+			packer.publish(1);
+		}
+
+		IncrementalAtlasPacker packer () throws IOException {
+			Path output = root.resolve("pack");
+			Files.createDirectories(output);
+			return new IncrementalAtlasPacker(root.resolve("raw/atlas"), output, "assets", root.resolve("cache"));
+		}
+
+		@TearDown
+		public void tearDown () throws IOException {
+			SyntheticAssets.delete(root);
+		}
+	}
+
+	@Benchmark
+	public String repackChanged (Atlas atlas) throws IOException {
+		atlas.packer.pack();
+		return atlas.packer.publish(++atlas.version);
+	}
+
+	@Benchmark
+	public String packEverything (Atlas atlas) throws IOException {
+		// without a manifest we pack everything
+		Files.deleteIfExists(atlas.root.resolve("cache/assets-manifest.json"));
+		IncrementalAtlasPacker packer = atlas.packer();
+		packer.pack();
+		return packer.publish(++atlas.version);
+	}
+
+	@Benchmark
+	public IncrementalAtlasPacker.Result checkUnchanged (Unchanged atlas) throws IOException {
+		// fresh packer, same as after a restart
+		return atlas.packer().pack();
+	}
+}
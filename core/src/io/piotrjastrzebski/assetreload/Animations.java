@@ -0,0 +1,184 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.math.Interpolation;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncResult;
+import com.badlogic.gdx.utils.async.AsyncTask;
+
+import java.util.Arrays;
+
+/**
+ * Animation state of renderables, stored in packed arrays and updated in parallel chunks
+ *
+ * Slots are dense, removing an entity moves the last one into its slot. State is written only in {@link #update(float)},
+ * everything else can read it afterwards.
+ */
+public class Animations implements Disposable {
+	/** least entities per chunk, smaller updates run on calling thread */
+	private static final int CHUNK = 4096;
+	private static final float RANGE = 75;
+
+	private int size;
+	/** slot to entity id */
+	private int[] entities = new int[64];
+	/** entity id to slot, -1 if it doesn't have one */
+	private int[] slots = new int[64];
+	private float[] x = new float[64];
+	private float[] y = new float[64];
+	private float[] progress = new float[64];
+	private float[] dir = new float[64];
+	private float[] angle = new float[64];
+	private float[] drawX = new float[64];
+	private float[] drawY = new float[64];
+
+	private final int threads;
+	private final AsyncExecutor executor;
+	private final Array<Chunk> chunks = new Array<>();
+	private final Array<AsyncResult<Void>> results = new Array<>();
+
+	public Animations () {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public Animations (int threads) {
+		this.threads = Math.max(threads, 1);
+		// calling thread updates a chunk as well
+		executor = this.threads > 1? new AsyncExecutor(this.threads - 1) : null;
+		for (int i = 0; i < this.threads; i++) {
+			chunks.add(new Chunk());
+		}
+		Arrays.fill(slots, -1);
+	}
+
+	public void add (int entityId, float x, float y, float progress) {
+		if (entityId >= slots.length) {
+			int length = slots.length;
+			slots = Arrays.copyOf(slots, Math.max(entityId + 1, length * 2));
+			Arrays.fill(slots, length, slots.length, -1);
+		}
+		if (slots[entityId] != -1) remove(entityId);
+		if (size == entities.length) grow(size * 2);
+		int slot = size++;
+		slots[entityId] = slot;
+		entities[slot] = entityId;
+		this.x[slot] = x;
+		this.y[slot] = y;
+		this.progress[slot] = progress;
+		dir[slot] = 1;
+		angle[slot] = 0;
+		update(slot, 0);
+	}
+
+	public void remove (int entityId) {
+		if (entityId >= slots.length) return;
+		int slot = slots[entityId];
+		if (slot == -1) return;
+		slots[entityId] = -1;
+		int last = --size;
+		if (slot == last) return;
+		int moved = entities[last];
+		entities[slot] = moved;
+		slots[moved] = slot;
+		x[slot] = x[last];
+		y[slot] = y[last];
+		progress[slot] = progress[last];
+		dir[slot] = dir[last];
+		angle[slot] = angle[last];
+		drawX[slot] = drawX[last];
+		drawY[slot] = drawY[last];
+	}
+
+	private void grow (int capacity) {
+		entities = Arrays.copyOf(entities, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		progress = Arrays.copyOf(progress, capacity);
+		dir = Arrays.copyOf(dir, capacity);
+		angle = Arrays.copyOf(angle, capacity);
+		drawX = Arrays.copyOf(drawX, capacity);
+		drawY = Arrays.copyOf(drawY, capacity);
+	}
+
+	/**
+	 * Steps all animations, large counts are split into chunks that run in parallel
+	 */
+	public void update (float delta) {
+		int count = Math.min(size / CHUNK, threads);
+		if (count <= 1) {
+			update(0, size, delta);
+			return;
+		}
+		int perChunk = (size + count - 1) / count;
+		for (int i = 0; i < count; i++) {
+			Chunk chunk = chunks.get(i);
+			chunk.from = i * perChunk;
+			chunk.to = Math.min(chunk.from + perChunk, size);
+			chunk.delta = delta;
+			if (i > 0) results.add(executor.submit(chunk));
+		}
+		chunks.first().call();
+		for (int i = 0; i < results.size; i++) {
+			results.get(i).get();
+		}
+		results.clear();
+	}
+
+	private void update (int from, int to, float delta) {
+		for (int slot = from; slot < to; slot++) {
+			update(slot, delta);
+		}
+	}
+
+	private void update (int slot, float delta) {
+		angle[slot] += delta * 45;
+		float p = progress[slot] + delta * dir[slot];
+		if (p > 1) dir[slot] = -1;
+		if (p < 0) dir[slot] = 1;
+		progress[slot] = p;
+		// same as exp5.apply(start, end, p) for both axes, but interpolated once
+		float alpha = Interpolation.exp5.apply(p) * RANGE * 2;
+		drawX[slot] = x[slot] - RANGE + alpha;
+		drawY[slot] = y[slot] + RANGE - alpha;
+	}
+
+	/**
+	 * @return slot of given entity, -1 if it doesn't have one
+	 */
+	public int getSlot (int entityId) {
+		if (entityId >= slots.length) return -1;
+		return slots[entityId];
+	}
+
+	public float getDrawX (int slot) {
+		return drawX[slot];
+	}
+
+	public float getDrawY (int slot) {
+		return drawY[slot];
+	}
+
+	public float getAngle (int slot) {
+		return angle[slot];
+	}
+
+	public int size () {
+		return size;
+	}
+
+	@Override public void dispose () {
+		if (executor != null) executor.dispose();
+	}
+
+	private class Chunk implements AsyncTask<Void> {
+		int from;
+		int to;
+		float delta;
+
+		@Override public Void call () {
+			update(from, to, delta);
+			return null;
+		}
+	}
+}
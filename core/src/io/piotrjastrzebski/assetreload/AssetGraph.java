@@ -0,0 +1,128 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+/**
+ * Dependencies between loaded assets, kept in both directions
+ *
+ * Assets are identified by file name, same as in {@link com.badlogic.gdx.assets.AssetManager}. Lookups only touch the
+ * part of the graph that is connected to the asset we start from.
+ */
+public class AssetGraph {
+	private final ObjectMap<String, Array<String>> dependencies = new ObjectMap<>();
+	private final ObjectMap<String, Array<String>> dependents = new ObjectMap<>();
+
+	/**
+	 * Replaces dependencies of given asset
+	 */
+	public void setDependencies (String name, Array<String> names) {
+		clearDependencies(name);
+		Array<String> deps = dependencies.get(name);
+		if (deps == null) {
+			deps = new Array<>();
+			dependencies.put(name, deps);
+		}
+		if (names == null) return;
+		for (String dependency : names) {
+			if (deps.contains(dependency, false)) continue;
+			deps.add(dependency);
+			Array<String> users = dependents.get(dependency);
+			if (users == null) {
+				users = new Array<>();
+				dependents.put(dependency, users);
+			}
+			users.add(name);
+		}
+	}
+
+	/**
+	 * Removes asset and its outgoing edges, assets that depend on it keep their edges
+	 */
+	public void remove (String name) {
+		clearDependencies(name);
+		dependencies.remove(name);
+	}
+
+	private void clearDependencies (String name) {
+		Array<String> deps = dependencies.get(name);
+		if (deps == null) return;
+		for (String dependency : deps) {
+			Array<String> users = dependents.get(dependency);
+			if (users == null) continue;
+			users.removeValue(name, false);
+			if (users.size == 0) dependents.remove(dependency);
+		}
+		deps.clear();
+	}
+
+	public boolean contains (String name) {
+		return dependencies.containsKey(name);
+	}
+
+	/**
+	 * @return direct dependencies, null if we dont know about this asset
+	 */
+	public Array<String> getDependencies (String name) {
+		return dependencies.get(name);
+	}
+
+	/**
+	 * @return assets that directly depend on given one, null if there are none
+	 */
+	public Array<String> getDependents (String name) {
+		return dependents.get(name);
+	}
+
+	/**
+	 * Adds given asset and everything that depends on it, directly or not, to out
+	 */
+	public void collectDependents (String name, ObjectSet<String> out) {
+		if (!out.add(name)) return;
+		Array<String> users = dependents.get(name);
+		if (users == null) return;
+		for (int i = 0; i < users.size; i++) {
+			collectDependents(users.get(i), out);
+		}
+	}
+
+	/**
+	 * Adds given asset and everything it depends on, directly or not, to out
+	 */
+	public void collectDependencies (String name, ObjectSet<String> out) {
+		if (!out.add(name)) return;
+		Array<String> deps = dependencies.get(name);
+		if (deps == null) return;
+		for (int i = 0; i < deps.size; i++) {
+			collectDependencies(deps.get(i), out);
+		}
+	}
+
+	/**
+	 * Adds names to out so that dependencies come before assets that depend on them
+	 */
+	public void sort (ObjectSet<String> names, Array<String> out) {
+		ObjectSet<String> visited = new ObjectSet<>(names.size);
+		for (String name : new ObjectSet.ObjectSetIterator<>(names)) {
+			visit(name, names, visited, out);
+		}
+	}
+
+	private void visit (String name, ObjectSet<String> names, ObjectSet<String> visited, Array<String> out) {
+		if (!visited.add(name)) return;
+		Array<String> deps = dependencies.get(name);
+		if (deps != null) {
+			for (int i = 0; i < deps.size; i++) {
+				String dependency = deps.get(i);
+				if (names.contains(dependency)) visit(dependency, names, visited, out);
+			}
+		}
+		out.add(name);
+	}
+
+	public void clear () {
+		dependencies.clear();
+		dependents.clear();
+	}
+}
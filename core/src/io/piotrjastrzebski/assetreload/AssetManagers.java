@@ -8,34 +8,77 @@ import com.badlogic.gdx.assets.loaders.AssetLoader;
 import com.badlogic.gdx.assets.loaders.FileHandleResolver;
 import com.badlogic.gdx.assets.loaders.ParticleEffectLoader;
 import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.ParticleEffect;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Logger;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.TimeUtils;
 
 /**
+ * Asset store that can reload assets while old versions are still in use
+ *
+ * Each load of an asset creates a new {@link Generation}, loaded under its own name in a single {@link AssetManager}.
+ * Only changed assets and assets that depend on them get a new generation, everything else is shared with the
+ * previous one through {@link AssetManager} reference counting. Replaced generations are unloaded once nothing
+ * holds a reference to them.
+ *
  * Created by PiotrJ on 09/08/16.
  */
 public class AssetManagers {
 	private static final String TAG = AssetManagers.class.getSimpleName();
-	AssetManager managerA;
-	AssetManager managerB;
-	ObjectMap<AssetDescriptor, AssetManager> descToCurrent = new ObjectMap<>();
-	ObjectMap<AssetDescriptor, AssetManager> descToNext = new ObjectMap<>();
+	AssetManager manager;
+	GenerationResolver resolver;
+	/** descriptors passed to {@link #load(AssetDescriptor)} by file name */
 	ObjectMap<String, AssetDescriptor> descriptors = new ObjectMap<>();
+	ObjectMap<String, Generation> current = new ObjectMap<>();
+	ObjectMap<String, Generation> pending = new ObjectMap<>();
+	/** generation names in manager to file names of their descriptors */
+	ObjectMap<String, String> keyToName = new ObjectMap<>();
+	ObjectMap<Class, ParameterRemapper> remappers = new ObjectMap<>();
+	/** file names to files their next generation is loaded from */
+	ObjectMap<String, String> redirects = new ObjectMap<>();
+	AssetGraph graph = new AssetGraph();
+	/** data decoded off the render thread for assets that are about to be loaded */
+	PreparedAssets prepared = new PreparedAssets();
+	/** patched page files to names of textures they were drawn into */
+	ObjectMap<String, String> patchedPages = new ObjectMap<>();
+	int nextGeneration = 1;
 
 	Array<AssetDescriptor> reloading = new Array<>();
+	ObjectSet<String> reloadingNames = new ObjectSet<>();
+	/** batches that came in during a reload, next one to load */
+	Array<AssetDescriptor> deferred = new Array<>();
+	Array<Generation> retired = new Array<>();
 
 	public AssetManagers () {
 		this(new InternalFileHandleResolver());
 	}
 
 	public AssetManagers (FileHandleResolver resolver) {
-		managerA = new AssetManager(resolver);
-		managerB = new AssetManager(resolver);
-		managerA.getLogger().setLevel(Logger.DEBUG);
-		managerB.getLogger().setLevel(Logger.DEBUG);
+		this.resolver = new GenerationResolver(resolver);
+		manager = new AssetManager(this.resolver);
+		manager.getLogger().setLevel(Logger.DEBUG);
+		manager.setLoader(Texture.class, new PreparedTextureLoader(this.resolver, prepared));
+		manager.setLoader(TextureAtlas.class, new SharedPageAtlasLoader(this.resolver, prepared));
+		manager.setLoader(TextureAtlas.class, BinaryAtlas.SUFFIX, new BinaryAtlasLoader(this.resolver, prepared));
+		manager.setLoader(ParticleEffect.class, new PreparedParticleEffectLoader(this.resolver, prepared));
+		setRemapper(ParticleEffect.class, new ParameterRemapper<ParticleEffect>() {
+			@Override public AssetLoaderParameters<ParticleEffect> remap (AssetLoaderParameters<ParticleEffect> parameters) {
+				ParticleEffectLoader.ParticleEffectParameter source = (ParticleEffectLoader.ParticleEffectParameter)parameters;
+				ParticleEffectLoader.ParticleEffectParameter params = new ParticleEffectLoader.ParticleEffectParameter();
+				params.loadedCallback = source.loadedCallback;
+				params.atlasFile = source.atlasFile == null ? null : getKey(source.atlasFile);
+				params.atlasPrefix = source.atlasPrefix;
+				params.imagesDir = source.imagesDir;
+				return params;
+			}
+		});
 	}
 
 	public <T> void load (String fileName, Class<T> type) {
@@ -43,131 +86,426 @@ public class AssetManagers {
 	}
 
 	public <T> void load (String fileName, Class<T> type, AssetLoaderParameters<T> parameter) {
-		managerA.load(fileName, type, parameter);
+		load(new AssetDescriptor<>(fileName, type, parameter));
 	}
 
 	public <T> T get (String fileName, Class<T> type) {
-		return managerA.get(fileName, type);
+		return manager.get(current.get(fileName).key, type);
 	}
 
+	/**
+	 * Loads given asset, if it was loaded before it is reloaded together with everything that depends on it
+	 *
+	 * Same as a batch with just this asset, see {@link #load(Array)}
+	 */
 	public <T> void load (AssetDescriptor<T> descriptor) {
-		if (reloading.contains(descriptor, true)) {
-			Gdx.app.log(TAG, "Skip duplicate reload " + descriptor);
+		Array<AssetDescriptor> batch = new Array<>(1);
+		batch.add(descriptor);
+		load(batch);
+	}
+
+	/**
+	 * Loads given assets as one batch, ones that were loaded before are reloaded together with everything that depends
+	 * on any of them. Reload set is figured out once for the whole batch, so every asset is loaded once, after assets
+	 * it depends on, and {@link Listener#onReload(Array)} is called once when all of them are in place
+	 *
+	 * Batches that come in while another one is loading are merged and started once it is done, so every reload the
+	 * listener sees is consistent
+	 */
+	public void load (Array<AssetDescriptor> batch) {
+		if (reloading.size > 0) {
+			deferred.addAll(batch);
 			return;
 		}
+		ObjectSet<String> affected = new ObjectSet<>();
+		Array<AssetDescriptor> added = new Array<>();
+		for (AssetDescriptor descriptor : batch) {
+			if (descriptors.containsKey(descriptor.fileName)) {
+				Gdx.app.log(TAG, "Reload " + descriptor);
+				// stuff we depend on is shared with new generation, only things that depend on us need to be loaded again
+				graph.collectDependents(descriptor.fileName, affected);
+			} else if (!affected.contains(descriptor.fileName)) {
+				descriptors.put(descriptor.fileName, descriptor);
+				affected.add(descriptor.fileName);
+				added.add(descriptor);
+			}
+		}
+		Array<String> sorted = new Array<>();
+		graph.sort(affected, sorted);
+		for (String name : sorted) {
+			// we reload only what was loaded explicitly, rest is loaded as dependencies
+			AssetDescriptor desc = descriptors.get(name);
+			if (desc != null && !reloadingNames.contains(name) && !added.contains(desc, true)) {
+				if (!batch.contains(desc, true)) Gdx.app.log(TAG, "Reload dependant " + desc);
+				queue(desc);
+			}
+		}
+		// new ones may reference assets that are reloaded, those need to be pending by now
+		for (AssetDescriptor desc : added) {
+			queue(desc);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void queue (AssetDescriptor descriptor) {
+		reloadingNames.add(descriptor.fileName);
 		reloading.add(descriptor);
-		Array<AssetDescriptor> loadAfter = new Array<>();
-		if (!descToCurrent.containsKey(descriptor)) {
-			descToCurrent.put(descriptor, managerA);
-			descToNext.put(descriptor, managerB);
-			descriptors.put(descriptor.fileName, descriptor);
+		Generation generation = new Generation(descriptor, nextGeneration++);
+		pending.put(descriptor.fileName, generation);
+		keyToName.put(generation.key, descriptor.fileName);
+		resolver.put(generation.key, getFile(descriptor.fileName));
+		AssetLoaderParameters params = descriptor.params;
+		ParameterRemapper remapper = remappers.get(descriptor.type);
+		if (params != null && remapper != null) {
+			params = remapper.remap(params);
+		}
+		manager.load(new AssetDescriptor(generation.key, descriptor.type, params));
+	}
+
+	/**
+	 * Data in given assets is used by loaders instead of reading their files, what is not used by the time loading
+	 * finishes is disposed. Given assets are left empty
+	 */
+	public void prepare (PreparedAssets assets) {
+		prepared.takeAll(assets);
+	}
+
+	/**
+	 * Draws given patch into texture of the page it was made for, if that texture is loaded. Texture then stands in for
+	 * the patched page, so patches made for that one find it as well
+	 *
+	 * Texture is managed, if context is lost it is loaded from its original file and patch is gone until next reload
+	 *
+	 * @return true if patch was drawn, false if the page needs to be loaded instead
+	 */
+	public boolean patch (ChangeSet.Patch patch) {
+		String page = patch.page;
+		if (!manager.isLoaded(page, Texture.class)) page = patchedPages.get(page);
+		if (page == null || !manager.isLoaded(page, Texture.class)) return false;
+		// Texture.draw refuses managed textures, so we upload it ourselves
+		Texture texture = manager.get(page, Texture.class);
+		Pixmap pixmap = patch.pixmap;
+		texture.bind();
+		Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+		Gdx.gl.glTexSubImage2D(texture.glTarget, 0, patch.x, patch.y, pixmap.getWidth(), pixmap.getHeight(),
+			pixmap.getGLFormat(), pixmap.getGLType(), pixmap.getPixels());
+		patchedPages.put(patch.file, page);
+		return true;
+	}
+
+	/**
+	 * Next generation of given asset will be loaded from file instead, for processed assets that are published under
+	 * versioned names. Generations that are already loaded are not affected
+	 */
+	public void redirect (String fileName, String file) {
+		if (fileName.equals(file)) {
+			redirects.remove(fileName);
 		} else {
-			AssetManager current = descToCurrent.get(descriptor);
-//			AssetManager next = descToNext.get(descriptor);
-			// super janky!
-			if (descriptor.type == ParticleEffect.class) {
-				Gdx.app.log(TAG, "Reload ParticleEffect " + descriptor);
-//				Gdx.app.log(TAG, "Reloading particle effect");
-				Array<String> dependencies = current.getDependencies(descriptor.fileName);
-				if (dependencies != null) {
-					for (String dependency : new Array<>(dependencies)) {
-						Class type = current.getAssetType(dependency);
-						if (current.isLoaded(dependency))
-							current.unload(dependency);
-						if (!descriptors.containsKey(dependency)) {
-							descriptors.put(dependency, new AssetDescriptor(dependency, type));
-						}
-						Gdx.app.log(TAG, "PRELOAD " + descriptors.get(dependency));
-						load(descriptors.get(dependency));
-					}
-				}
-			} else if (descriptor.type == TextureAtlas.class) {
-				Gdx.app.log(TAG, "Reload TextureAtlas " + descriptor);
-				// how do we know what depends on this? Go over all assets? kinda janky but eh
-				for (String name : current.getAssetNames()) {
-					Class assetType = current.getAssetType(name);
-					Array<String> dependencies = current.getDependencies(name);
-					if (dependencies != null) {
-						for (String dependency : new Array<>(dependencies)) {
-							if (dependency.equals(descriptor.fileName)) {
-								if (!descriptors.containsKey(name)) {
-									descriptors.put(name, new AssetDescriptor(name, assetType));
-								}
-								loadAfter.add(descriptors.get(name));
-							}
-						}
-					}
-				}
+			redirects.put(fileName, file);
+		}
+	}
+
+	private String getFile (String fileName) {
+		String file = redirects.get(fileName);
+		return file != null ? file : fileName;
+	}
+
+	/**
+	 * @return name under which current generation of given asset is loaded, pending one if it is being reloaded
+	 */
+	public String getKey (String fileName) {
+		Generation generation = pending.get(fileName);
+		if (generation == null) generation = current.get(fileName);
+		return generation != null ? generation.key : fileName;
+	}
+
+	/**
+	 * Unloads asset that was loaded with {@link #load(AssetDescriptor)}, generations still in use are unloaded once
+	 * they are released
+	 */
+	public <T> void unload (AssetDescriptor<T> descriptor) {
+		if (descriptors.remove(descriptor.fileName) == null) return;
+		Generation generation = current.remove(descriptor.fileName);
+		if (generation != null) retire(generation);
+		forget(descriptor.fileName);
+	}
+
+	/**
+	 * Updates graph with dependencies of given asset, and its dependencies, as loaded by manager
+	 */
+	private void record (String key) {
+		String name = getName(key);
+		Array<String> previous = graph.getDependencies(name);
+		previous = previous == null ? null : new Array<>(previous);
+		Array<String> dependencies = manager.getDependencies(key);
+		Array<String> names = null;
+		if (dependencies != null) {
+			names = new Array<>(dependencies.size);
+			for (String dependency : dependencies) {
+				names.add(getName(dependency));
 			}
 		}
-		descToNext.get(descriptor).load(descriptor);
-		for (AssetDescriptor desc : loadAfter) {
-			Gdx.app.log(TAG, "POSTLOAD " + desc);
-			load(desc);
+		graph.setDependencies(name, names);
+		if (previous != null) prune(previous);
+		if (dependencies == null) return;
+		for (String dependency : dependencies) {
+			// other generations are recorded when they are loaded
+			if (!keyToName.containsKey(dependency)) record(dependency);
 		}
-		loadAfter.clear();
 	}
 
-	private static class UnloadTask {
-		AssetManager manager;
-		String fileName;
+	private String getName (String key) {
+		String name = keyToName.get(key);
+		return name != null ? name : key;
+	}
 
-		UnloadTask (AssetManager manager, String fileName) {
-			this.manager = manager;
-			this.fileName = fileName;
+	/**
+	 * Removes asset from graph, along with its dependencies that nothing else needs
+	 */
+	private void forget (String name) {
+		Array<String> dependencies = graph.getDependencies(name);
+		dependencies = dependencies == null ? null : new Array<>(dependencies);
+		graph.remove(name);
+		if (dependencies != null) prune(dependencies);
+	}
+
+	private void prune (Array<String> names) {
+		for (String name : names) {
+			if (!descriptors.containsKey(name) && graph.getDependents(name) == null) {
+				forget(name);
+			}
 		}
 	}
 
+	private void retire (Generation generation) {
+		generation.retired = true;
+		retired.add(generation);
+	}
+
 	public Listener listener;
 
-	private Array<UnloadTask> unloadQueue = new Array<>();
+	/**
+	 * Runs single loading step, unloads all generations that are no longer used
+	 *
+	 * @return true if everything is loaded
+	 */
 	public boolean update () {
-		if (managerA.update() && managerB.update()) {
-			for (AssetDescriptor desc : reloading) {
-				AssetManager current = descToCurrent.get(desc);
-				AssetManager next = descToNext.get(desc);
-				unloadQueue.add(new UnloadTask(current, desc.fileName));
-				descToCurrent.put(desc, next);
-				descToNext.put(desc, current);
-			}
-			if (listener != null) {
-				// we need to  pass in what was reloaded
-				listener.onReload(reloading);
-			}
-			reloading.clear();
-			if (unloadQueue.size > 0) {
-				for (UnloadTask task : unloadQueue) {
-					if (task.manager.isLoaded(task.fileName)) {
-						task.manager.unload(task.fileName);
-					}
-				}
-				unloadQueue.clear();
-			}
-			return true;
+		if (!manager.update()) return false;
+		swap();
+		unloadRetired(Long.MAX_VALUE);
+		return reloading.size == 0;
+	}
+
+	/**
+	 * Loads and unloads for about given time, what doesn't fit is continued on next call. Single step, like texture
+	 * upload of a big page, can't be split, so one of them can go over the budget
+	 *
+	 * @return true if everything is loaded
+	 */
+	public boolean update (int millis) {
+		long deadline = TimeUtils.nanoTime() + millis * 1000000L;
+		if (!manager.update(millis)) return false;
+		// last step could have used up the budget, switching and unloading can wait for the next call
+		if (TimeUtils.nanoTime() >= deadline) return reloading.size == 0;
+		swap();
+		// unloading old pages is not free either, spread it over frames if we are out of time
+		unloadRetired(deadline);
+		return reloading.size == 0;
+	}
+
+	/**
+	 * @return progress of current reload, 1 if nothing is loading
+	 */
+	public float getProgress () {
+		return reloading.size == 0 ? 1 : manager.getProgress();
+	}
+
+	/**
+	 * @return true if there is something to load or unload
+	 */
+	public boolean isBusy () {
+		if (reloading.size > 0 || deferred.size > 0) return true;
+		for (Generation generation : retired) {
+			if (generation.refs == 0) return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Everything is loaded, pending generations become current ones
+	 */
+	private void swap () {
+		if (reloading.size == 0) return;
+		for (AssetDescriptor desc : reloading) {
+			Generation generation = pending.remove(desc.fileName);
+			Generation old = current.put(desc.fileName, generation);
+			if (old != null) retire(old);
+		}
+		for (AssetDescriptor desc : reloading) {
+			record(current.get(desc.fileName).key);
+		}
+		if (listener != null) {
+			// we need to  pass in what was reloaded
+			listener.onReload(reloading);
+		}
+		reloading.clear();
+		reloadingNames.clear();
+		if (prepared.size() > 0) {
+			Gdx.app.debug(TAG, "Disposing " + prepared.size() + " unused prepared assets");
+			prepared.dispose();
+		}
+		if (deferred.size > 0) {
+			Array<AssetDescriptor> batch = new Array<>(deferred);
+			deferred.clear();
+			load(batch);
+		}
+	}
+
+	/**
+	 * Unloads retired generations that are not used, until deadline passes
+	 */
+	private void unloadRetired (long deadline) {
+		// listener had a chance to switch to new generations, get rid of ones that are not used
+		for (int i = retired.size - 1; i >= 0; i--) {
+			Generation generation = retired.get(i);
+			if (generation.refs > 0) continue;
+			if (TimeUtils.nanoTime() >= deadline) return;
+			retired.removeIndex(i);
+			if (manager.isLoaded(generation.key)) {
+				manager.unload(generation.key);
+			}
+			keyToName.remove(generation.key);
+			resolver.remove(generation.key);
+		}
+	}
+
 	public <T> T get (AssetDescriptor<T> descriptor) {
-		return descToCurrent.get(descriptor).get(descriptor);
+		return manager.get(current.get(descriptor.fileName).key, descriptor.type);
+	}
+
+	/**
+	 * @return current generation of given asset, null if it is not loaded
+	 */
+	public Generation getGeneration (AssetDescriptor descriptor) {
+		return current.get(descriptor.fileName);
+	}
+
+	/**
+	 * @return current generation of given asset with a reference held, call {@link Generation#release()} when done
+	 */
+	public Generation acquire (AssetDescriptor descriptor) {
+		Generation generation = current.get(descriptor.fileName);
+		if (generation == null) return null;
+		generation.retain();
+		return generation;
+	}
+
+	/**
+	 * @return number of generations that were replaced but are still in use
+	 */
+	public int getRetiredCount () {
+		return retired.size;
 	}
 
 	public <T, P extends AssetLoaderParameters<T>> void setLoader (Class<T> type, AssetLoader<T, P> loader) {
-		managerA.setLoader(type, loader);
-		managerB.setLoader(type, loader);
+		manager.setLoader(type, loader);
 	}
 
 	public <T, P extends AssetLoaderParameters<T>> void setLoader (Class<T> type, String suffix, AssetLoader<T, P> loader) {
-		managerA.setLoader(type, suffix, loader);
-		managerB.setLoader(type, suffix, loader);
+		manager.setLoader(type, suffix, loader);
+	}
+
+	/**
+	 * Parameters that reference other assets by file name need to point at their current generation
+	 */
+	public <T> void setRemapper (Class<T> type, ParameterRemapper<T> remapper) {
+		remappers.put(type, remapper);
 	}
 
 	public void dispose () {
-		managerA.dispose();
-		managerB.dispose();
+		graph.clear();
+		redirects.clear();
+		patchedPages.clear();
+		prepared.dispose();
+		manager.dispose();
 	}
 
 	public interface Listener {
 		void onReload (Array<AssetDescriptor> reloading);
 	}
+
+	public interface ParameterRemapper<T> {
+		/**
+		 * @return copy of parameters with asset file names replaced with {@link #getKey(String)}
+		 */
+		AssetLoaderParameters<T> remap (AssetLoaderParameters<T> parameters);
+	}
+
+	/**
+	 * Single loaded version of an asset
+	 */
+	public class Generation {
+		public final AssetDescriptor descriptor;
+		public final int id;
+		/** name of this generation in the asset manager */
+		public final String key;
+		int refs;
+		boolean retired;
+
+		Generation (AssetDescriptor descriptor, int id) {
+			this.descriptor = descriptor;
+			this.id = id;
+			key = "@" + id + "/" + descriptor.fileName;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> T get () {
+			return (T)manager.get(key, descriptor.type);
+		}
+
+		public void retain () {
+			refs++;
+		}
+
+		public void release () {
+			if (refs == 0) throw new IllegalStateException("Generation " + key + " released too many times");
+			refs--;
+		}
+
+		public boolean isRetired () {
+			return retired;
+		}
+
+		@Override public String toString () {
+			return key;
+		}
+	}
+
+	/**
+	 * Resolves generation names to file names of their assets, other names are passed through
+	 */
+	static class GenerationResolver implements FileHandleResolver {
+		private final FileHandleResolver resolver;
+		private final ObjectMap<String, String> files = new ObjectMap<>();
+
+		GenerationResolver (FileHandleResolver resolver) {
+			this.resolver = resolver;
+		}
+
+		synchronized void put (String key, String fileName) {
+			files.put(key, fileName);
+		}
+
+		synchronized void remove (String key) {
+			files.remove(key);
+		}
+
+		@Override public FileHandle resolve (String fileName) {
+			String file;
+			synchronized (this) {
+				file = files.get(fileName);
+			}
+			return resolver.resolve(file != null ? file : fileName);
+		}
+	}
 }
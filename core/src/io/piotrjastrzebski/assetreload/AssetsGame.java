@@ -2,17 +2,24 @@ package io.piotrjastrzebski.assetreload;
 
 import com.artemis.*;
 import com.artemis.annotations.Wire;
-import com.artemis.systems.IteratingSystem;
 import com.artemis.utils.IntBag;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.assets.AssetDescriptor;
 import com.badlogic.gdx.assets.loaders.ParticleEffectLoader;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.*;
-import com.badlogic.gdx.math.Interpolation;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+import java.util.concurrent.locks.LockSupport;
 
 public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 	private static final String TAG = AssetsGame.class.getSimpleName();
@@ -22,6 +29,7 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 	private Platform platform;
 
 	World world;
+	RegionHandles regions;
 
 	public AssetsGame (Platform platform) {
 		this.platform = platform;
@@ -33,8 +41,10 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 
 		Gdx.input.setInputProcessor(this);
 
+		regions = new RegionHandles();
 		WorldConfiguration cfg = new WorldConfiguration();
 		cfg.register(batch);
+		cfg.register(regions);
 		cfg.setSystem(new Assets(platform));
 		cfg.setSystem(Renderer.class);
 
@@ -42,7 +52,7 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 
 		EntityEdit edit = world.createEntity().edit();
 		Assets.Asset asset = edit.create(Assets.Asset.class);
-		asset.path = "badlogic";
+		asset.region = regions.handle("badlogic");
 		asset.type = TextureRegion.class;
 		Renderer.Renderable renderable = edit.create(Renderer.Renderable.class);
 		renderable.x = 400 - 128;
@@ -50,7 +60,7 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 
 		edit = world.createEntity().edit();
 		asset = edit.create(Assets.Asset.class);
-		asset.path = "tree";
+		asset.region = regions.handle("tree");
 		asset.type = TextureRegion.class;
 		renderable = edit.create(Renderer.Renderable.class);
 		renderable.x = 100;
@@ -85,69 +95,203 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 		protected ComponentMapper<Asset> mAsset;
 		protected ComponentMapper<Renderer.Renderable> mRenderable;
 		AssetManagers assetManager;
+		// how much of a frame we can spend on reloading, in millis
+		private static final int RELOAD_BUDGET = 4;
 		boolean loadInProgress = false;
+		/** processed changes on their way from platform thread */
+		private HandoffQueue<ChangeSet> processed = new HandoffQueue<>(8);
+		/** changes received while a reload was in progress, merged into one */
+		private ChangeSet pending;
+		ReloadStats stats = new ReloadStats();
+		/** trace of reload in progress, or one waiting for a frame to be rendered */
+		ReloadTrace trace;
 		AssetDescriptor<ParticleEffect> particleDesc;
-		ParticleEffect effect;
+		AssetManagers.Generation particle;
+		@Wire RegionHandles regions;
+		/** atlas generation that region handles point at */
+		private AssetManagers.Generation regionsAtlas;
+		/** effect path to entities that use it */
+		private ObjectMap<String, Binding> effects = new ObjectMap<>();
+		/** regions that changed in atlas being loaded, null if we don't know */
+		private ObjectSet<String> changedRegions;
 
 		public Assets (Platform platform) {
 			super(Aspect.all(Asset.class));
 			platform.start(this, true);
-			platform.processAssetsAsync("");
-			// this works, but we are leaking assets doing this
-			assetManager = new AssetManagers();
+			platform.processAssetsAsync(ChangeSet.everything());
+			assetManager = new AssetManagers(platform.getResolver());
+		}
+
+		/**
+		 * Binary atlas loads without parsing, we use it if processing we load first published one. Text one is there
+		 * for assets that were not processed, ones packaged with the game for example. Effects reference the atlas by
+		 * its file, so the format stays the same for the rest of the session
+		 */
+		private void createDescriptors (ChangeSet changes) {
+			String binary = BinaryAtlas.binaryFile(ATLAS_NAME);
+			String atlasFile = changes.getFiles().containsKey(binary) ? binary : ATLAS_NAME;
+			atlasDescriptor = new AssetDescriptor<>(atlasFile, TextureAtlas.class);
 			ParticleEffectLoader.ParticleEffectParameter params = new ParticleEffectLoader.ParticleEffectParameter();
-			params.atlasFile = ATLAS_NAME;
+			params.atlasFile = atlasFile;
 			particleDesc = new AssetDescriptor<>("particles/test.p", ParticleEffect.class, params);
 		}
 
-		public void updateAllAssets (String type) {
-			IntBag entities = getSubscription().getEntities();
-			for (int id = 0; id < entities.size(); id++) {
-				updateAsset(entities.get(id), type);
+		@Override protected void inserted (int entityId) {
+			Asset asset = mAsset.get(entityId);
+			if (asset.type == TextureRegion.class) {
+				// handle points at new region after reload, nothing else to do
+				Renderer.Renderable renderable = mRenderable.create(entityId);
+				renderable.type = asset.type;
+				renderable.region = asset.region;
+				return;
+			}
+			Binding binding = effects.get(asset.path);
+			if (binding == null) {
+				binding = new Binding();
+				binding.key = asset.path;
+				effects.put(asset.path, binding);
+				if (particle != null && asset.path.equals(particleDesc.fileName)) rebind(binding, particle);
 			}
+			binding.entities.add(entityId);
+			if (binding.pool != null) update(entityId, binding);
 		}
 
-		@Override protected void inserted (int entityId) {
-			updateAsset(entityId, "");
+		@Override protected void removed (int entityId) {
+			Asset asset = mAsset.getSafe(entityId, null);
+			if (asset == null || asset.type != ParticleEffect.class) return;
+			Binding binding = effects.get(asset.path);
+			if (binding == null) return;
+			binding.entities.remove(entityId);
+			Renderer.Renderable renderable = mRenderable.getSafe(entityId, null);
+			if (binding.pool != null && renderable != null && renderable.effect != null) {
+				binding.pool.free(renderable.effect);
+				renderable.effect = null;
+			}
+			if (binding.entities.size == 0) {
+				if (binding.generation != null) binding.generation.release();
+				effects.remove(asset.path);
+			}
 		}
 
-		private void updateAsset (int entityId, String type) {
-			if (atlas == null) return;
-			Asset asset = mAsset.get(entityId);
-			Renderer.Renderable renderable = mRenderable.create(entityId);
-			renderable.type = asset.type;
-			if (asset.type == ParticleEffect.class && !type.contains("atlas")) {
-				renderable.effect = new ParticleEffect(effect);
-			} else if (asset.type == TextureRegion.class && !type.contains("particle")) {
-				renderable.region = atlas.findRegion(asset.path);
+		/**
+		 * Points binding at given generation, effects entities already have are patched in place
+		 */
+		private void rebind (Binding binding, AssetManagers.Generation generation) {
+			generation.retain();
+			if (binding.generation != null) binding.generation.release();
+			binding.generation = generation;
+			if (binding.pool != null) {
+				binding.pool.setTemplate(generation.<ParticleEffect>get());
+				return;
+			}
+			binding.pool = new EffectPool(generation.<ParticleEffect>get());
+			IntSet.IntSetIterator it = binding.entities.iterator();
+			while (it.hasNext) {
+				update(it.next(), binding);
 			}
 		}
 
+		private void update (int entityId, Binding binding) {
+			Renderer.Renderable renderable = mRenderable.create(entityId);
+			renderable.type = ParticleEffect.class;
+			renderable.effect = binding.pool.obtain();
+		}
+
+		/**
+		 * Rebinds regions that changed in new atlas generation, others stay as they are, as their pages are shared
+		 */
+		private void atlasReloaded () {
+			regions.rebind(atlas.<TextureAtlas>get(), changedRegions);
+			// region handles hold a reference to atlas they point at, so old ones can be unloaded
+			atlas.retain();
+			if (regionsAtlas != null) regionsAtlas.release();
+			regionsAtlas = atlas;
+		}
+
+		/** atlas as pipeline knows it, changes are reported under this name */
 		private String ATLAS_NAME = "pack/assets.atlas";
-		private AssetDescriptor<TextureAtlas> atlasDescriptor = new AssetDescriptor<>(ATLAS_NAME, TextureAtlas.class);
+		private AssetDescriptor<TextureAtlas> atlasDescriptor;
 
 		@Override protected void processSystem () {
-			if (loadInProgress) {
-				if (assetManager.update()) {
-					loadInProgress = false;
+			if (trace != null && !loadInProgress && trace.reached(ReloadTrace.Stage.UPDATED)) {
+				// previous frame was rendered with new assets
+				trace.mark(ReloadTrace.Stage.RENDERED);
+				stats.record(trace);
+				Gdx.app.log(TAG, "Reloaded " + trace);
+				trace = null;
+			}
+			// everything that was processed since last frame goes into one reload, it has to wait for one in flight
+			ChangeSet changes;
+			while ((changes = processed.poll()) != null) {
+				changes.getTrace().mark(ReloadTrace.Stage.RECEIVED);
+				if (pending == null) {
+					pending = changes;
+				} else {
+					pending.merge(changes);
+				}
+			}
+			if (!loadInProgress && pending != null) {
+				changes = pending;
+				pending = null;
+				reload(changes);
+			}
+			if (!loadInProgress && !assetManager.isBusy()) return;
+			if (assetManager.update(RELOAD_BUDGET)) {
+				loadInProgress = false;
+			} else {
+				Gdx.app.debug(TAG, "Reloading " + (int)(assetManager.getProgress() * 100) + "%");
+			}
+		}
+
+		/**
+		 * Called on platform thread, changes are picked up by {@link #processSystem()}
+		 */
+		@Override public void assetsProcessed (ChangeSet changes) {
+			while (!processed.offer(changes)) {
+				// render thread is a whole queue behind, processing can wait for it
+				LockSupport.parkNanos(1000000L);
+				if (Thread.currentThread().isInterrupted()) {
+					changes.clear();
+					return;
 				}
 			}
 		}
 
-		private TextureAtlas atlas;
-		@Override public void assetsProcessed (final String type) {
-			if (loadInProgress) throw new AssertionError("Asset reload before old ones loaded!");
-			Gdx.app.log(TAG, "Processing " + type);
+		private AssetManagers.Generation atlas;
+		private void reload (ChangeSet changes) {
+			boolean first = atlasDescriptor == null;
+			// nothing is loaded before the first processing, so we know what it published
+			if (first) createDescriptors(changes);
+			boolean atlasChanged = first || changes.contains(ChangeSet.Category.ATLAS);
+			boolean particleChanged = first || changes.contains(ChangeSet.Category.PARTICLE);
+			if (atlasChanged && patch(changes.getPatches(ATLAS_NAME))) {
+				// pages are up to date and regions are where they were, nothing to load or rebind
+				atlasChanged = false;
+				if (!particleChanged) {
+					changes.getTrace().mark(ReloadTrace.Stage.LOADED);
+					changes.getTrace().mark(ReloadTrace.Stage.UPDATED);
+					trace = changes.getTrace();
+				}
+			}
+			changes.disposePatches();
+			if (!atlasChanged && !particleChanged) {
+				if (trace != changes.getTrace()) stats.record(changes.getTrace());
+				changes.getPrepared().dispose();
+				return;
+			}
+			Gdx.app.log(TAG, "Processing " + changes);
 			loadInProgress = true;
+			trace = changes.getTrace();
 			assetManager.listener = new AssetManagers.Listener() {
 				@Override public void onReload (Array<AssetDescriptor> reloaded) {
+					trace.mark(ReloadTrace.Stage.LOADED);
 					for (AssetDescriptor descriptor : reloaded) {
 						if (descriptor == atlasDescriptor) {
-							atlas = assetManager.get(atlasDescriptor);
-							updateAllAssets("atlas");
+							atlas = assetManager.getGeneration(atlasDescriptor);
+							atlasReloaded();
 						} else if (descriptor == particleDesc) {
-							atlas = assetManager.get(atlasDescriptor);
-							effect = assetManager.get(particleDesc);
+							particle = assetManager.getGeneration(particleDesc);
+							ParticleEffect effect = particle.get();
 							ParticleEmitter first = effect.getEmitters().first();
 							first.setContinuous(true);
 							first.getScale().setHigh(24, 48);
@@ -155,82 +299,271 @@ public class AssetsGame extends ApplicationAdapter implements InputProcessor {
 							first.getVelocity().setHigh(64, 128);
 							first.getVelocity().setLow(48, 96);
 //								first.setAdditive(true);
-							updateAllAssets("particle");
+							// renderer groups emitters by blend mode and restores it once they are drawn
+							effect.setEmittersCleanUpBlendFunction(false);
+							Binding binding = effects.get(particleDesc.fileName);
+							if (binding != null) rebind(binding, particle);
 						}
 					}
+					trace.mark(ReloadTrace.Stage.UPDATED);
 				}
 			};
-			if (type.equals("atlas")) {
-				assetManager.load(atlasDescriptor);
-			} else if (type.equals("particle")) {
-				assetManager.load(particleDesc);
-			} else {
-				assetManager.load(atlasDescriptor);
-				assetManager.load(particleDesc);
+			// processed assets can live in versioned files, load the version that was processed for these changes
+			for (ObjectMap.Entry<String, String> entry : changes.getFiles()) {
+				assetManager.redirect(entry.key, entry.value);
 			}
+			// decoded by the platform, we only need to upload it
+			assetManager.prepare(changes.getPrepared());
+			// one batch, so effects that use the atlas are loaded and rebound once
+			Array<AssetDescriptor> batch = new Array<>(2);
+			if (atlasChanged) {
+				// first load binds every region, so does a change set that could have changed any of them
+				changedRegions = regionsAtlas == null || changes.isEverything() ? null : changes.getRegions(ATLAS_NAME);
+				batch.add(atlasDescriptor);
+			}
+			if (particleChanged) {
+				batch.add(particleDesc);
+			}
+			assetManager.load(batch);
+		}
+
+		/**
+		 * Draws patches into loaded atlas pages
+		 *
+		 * @return true if all of them were drawn, false if atlas needs to be loaded
+		 */
+		private boolean patch (Array<ChangeSet.Patch> patches) {
+			if (patches == null || atlas == null) return false;
+			for (ChangeSet.Patch patch : patches) {
+				if (!assetManager.patch(patch)) return false;
+			}
+			Gdx.app.log(TAG, "Patched " + patches.size + " regions of " + ATLAS_NAME);
+			return true;
 		}
 
 		public static class Asset extends Component {
+			/** path of particle effect */
 			public String path;
+			/** handle from {@link RegionHandles} of texture region */
+			public int region = -1;
 			public Class type;
 		}
 
+		/**
+		 * Entities that use same particle effect, resolved once per reload
+		 */
+		static class Binding {
+			String key;
+			IntSet entities = new IntSet();
+			AssetManagers.Generation generation;
+			/** instances of effect for bound entities */
+			EffectPool pool;
+		}
+
+		/**
+		 * Logs reload stats and writes them to given file
+		 */
+		public void dumpStats (FileHandle file) {
+			stats.log();
+			stats.dump(file);
+		}
+
 		@Override protected void dispose () {
+			// decoded pixels of changes that never made it to a reload
+			ChangeSet changes;
+			while ((changes = processed.poll()) != null) {
+				changes.clear();
+			}
+			if (pending != null) pending.clear();
 			assetManager.dispose();
-//			descToNext.dispose();
 		}
 	}
 
-	public static class Renderer extends IteratingSystem {
+	/**
+	 * Draws sprites grouped by texture, then particle emitters grouped by blend mode and texture
+	 *
+	 * Frame is split into phases, animations are stepped in parallel, then entities are grouped and effects updated,
+	 * and finally groups are drawn, each in one run, so batch is flushed only when texture or blend mode changes
+	 */
+	public static class Renderer extends BaseEntitySystem {
+		private static final int BLEND_NORMAL = 0;
+		private static final int BLEND_PREMULTIPLIED = 1;
+		private static final int BLEND_ADDITIVE = 2;
+
 		@Wire SpriteBatch batch;
+		@Wire RegionHandles regions;
 		protected ComponentMapper<Renderable> mRenderable;
+		private final Animations animations = new Animations();
+		/** sprite entities by texture of their region */
+		private final ObjectMap<Texture, IntArray> sprites = new ObjectMap<>();
+		/** particle emitters by texture, for each blend mode */
+		private final Array<ObjectMap<Texture, Array<ParticleEmitter>>> emitters = new Array<>();
+		private int renderCalls;
+		private int groups;
+
 		public Renderer () {
 			super(Aspect.all(Renderable.class));
+			for (int i = 0; i <= BLEND_ADDITIVE; i++) {
+				emitters.add(new ObjectMap<Texture, Array<ParticleEmitter>>());
+			}
+		}
+
+		@Override protected void inserted (int entityId) {
+			Renderable r = mRenderable.get(entityId);
+			animations.add(entityId, r.x, r.y, r.progress);
 		}
 
-		@Override protected void begin () {
+		@Override protected void removed (int entityId) {
+			animations.remove(entityId);
+		}
+
+		@Override protected void processSystem () {
+			animations.update(world.delta);
+
+			IntBag entities = getSubscription().getEntities();
+			int[] ids = entities.getData();
+			for (int i = 0, n = entities.size(); i < n; i++) {
+				group(ids[i]);
+			}
+
+			groups = 0;
 			batch.begin();
+			for (ObjectMap.Entry<Texture, IntArray> entry : sprites) {
+				IntArray group = entry.value;
+				if (group.size == 0) continue;
+				groups++;
+				for (int i = 0; i < group.size; i++) {
+					int entityId = group.get(i);
+					TextureRegion region = regions.get(mRenderable.get(entityId).region);
+					int slot = animations.getSlot(entityId);
+					batch.draw(region,
+						animations.getDrawX(slot), animations.getDrawY(slot),
+						region.getRegionWidth()/2, region.getRegionHeight()/2,
+						region.getRegionWidth(), region.getRegionHeight(),
+						1, 1, animations.getAngle(slot));
+				}
+			}
+			for (ObjectMap<Texture, Array<ParticleEmitter>> byTexture : emitters) {
+				for (ObjectMap.Entry<Texture, Array<ParticleEmitter>> entry : byTexture) {
+					Array<ParticleEmitter> group = entry.value;
+					if (group.size == 0) continue;
+					groups++;
+					for (int i = 0; i < group.size; i++) {
+						// emitters set their blend function, it is the same for the whole group
+						group.get(i).draw(batch);
+					}
+				}
+			}
+			batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+			batch.end();
+			renderCalls = batch.renderCalls;
+
+			clearGroups();
 		}
 
-		@Override protected void process (int entityId) {
+		/**
+		 * Puts entity into its group, effects are updated here as well
+		 */
+		private void group (int entityId) {
 			Renderable r = mRenderable.get(entityId);
-			r.angle += world.delta * 45;
-			r.progress += world.delta * r.dir;
-			if (r.progress > 1) r.dir = -1;
-			if (r.progress < 0) r.dir = 1;
-			float x = Interpolation.exp5.apply(r.x - 75, r.x + 75, r.progress);
-			float y = Interpolation.exp5.apply(r.y + 75, r.y - 75, r.progress);
 			if (r.type == TextureRegion.class) {
-				batch.draw(r.region,
-					x, y,
-					r.region.getRegionWidth()/2, r.region.getRegionHeight()/2,
-					r.region.getRegionWidth(), r.region.getRegionHeight(),
-					1, 1, r.angle);
+				TextureRegion region = regions.get(r.region);
+				// not loaded yet or missing from the atlas
+				if (region == null) return;
+				IntArray group = sprites.get(region.getTexture());
+				if (group == null) {
+					group = new IntArray();
+					sprites.put(region.getTexture(), group);
+				}
+				group.add(entityId);
 			} else if (r.type == ParticleEffect.class) {
-				batch.end();
-				batch.begin();
-				r.effect.setPosition(x, y);
-				r.effect.draw(batch, world.delta);
+				int slot = animations.getSlot(entityId);
+				r.effect.setPosition(animations.getDrawX(slot), animations.getDrawY(slot));
+				r.effect.update(world.delta);
+				Array<ParticleEmitter> effectEmitters = r.effect.getEmitters();
+				for (int i = 0; i < effectEmitters.size; i++) {
+					ParticleEmitter emitter = effectEmitters.get(i);
+					ObjectMap<Texture, Array<ParticleEmitter>> byTexture = emitters.get(blend(emitter));
+					Texture texture = emitter.getSprite().getTexture();
+					Array<ParticleEmitter> group = byTexture.get(texture);
+					if (group == null) {
+						group = new Array<>(false, 16);
+						byTexture.put(texture, group);
+					}
+					group.add(emitter);
+				}
 			}
 		}
 
-		@Override protected void end () {
-			batch.end();
+		private static int blend (ParticleEmitter emitter) {
+			if (emitter.isPremultipliedAlpha()) return BLEND_PREMULTIPLIED;
+			if (emitter.isAdditive()) return BLEND_ADDITIVE;
+			return BLEND_NORMAL;
+		}
+
+		/**
+		 * Empties groups for next frame, groups that were empty this frame are removed, so we dont hold on to old textures
+		 */
+		private void clearGroups () {
+			ObjectMap.Entries<Texture, IntArray> spriteEntries = sprites.entries();
+			while (spriteEntries.hasNext()) {
+				IntArray group = spriteEntries.next().value;
+				if (group.size == 0) {
+					spriteEntries.remove();
+				} else {
+					group.clear();
+				}
+			}
+			for (int i = 0; i < emitters.size; i++) {
+				ObjectMap.Entries<Texture, Array<ParticleEmitter>> entries = emitters.get(i).entries();
+				while (entries.hasNext()) {
+					Array<ParticleEmitter> group = entries.next().value;
+					if (group.size == 0) {
+						entries.remove();
+					} else {
+						group.clear();
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return GL draw calls made by the batch in last frame, each is a flush
+		 */
+		public int getRenderCalls () {
+			return renderCalls;
+		}
+
+		/**
+		 * @return texture and blend mode groups drawn in last frame
+		 */
+		public int getGroups () {
+			return groups;
 		}
 
+		@Override protected void dispose () {
+			animations.dispose();
+		}
+
+		/**
+		 * Position and progress are initial state, {@link Animations} has the current one
+		 */
 		public static class Renderable extends Component {
 			public Class type;
-			public TextureRegion region;
+			/** handle from {@link RegionHandles} */
+			public int region = -1;
 			public ParticleEffect effect;
 			public float progress;
 			public float x;
 			public float y;
-			public float angle;
-			public int dir = 1;
 		}
 	}
 
 	@Override public boolean keyDown (int keycode) {
+		if (keycode == Input.Keys.F9) {
+			world.getSystem(Assets.class).dumpStats(Gdx.files.local("reload-stats.json"));
+			return true;
+		}
 		return false;
 	}
 
@@ -0,0 +1,174 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Atlas in a binary format, a page table followed by a region table, read straight from a mapped file
+ *
+ * Layout, big endian:
+ * <pre>
+ * int magic, int version
+ * int page count, per page: string file, float width, float height, string format, string min filter,
+ *   string mag filter, string u wrap, string v wrap, byte mip maps
+ * int region count, per region: int page, string name, int index, int left, int top, int width, int height,
+ *   float offset x, float offset y, int original width, int original height, byte flags, 4 ints splits if flagged,
+ *   4 ints pads if flagged
+ * </pre>
+ * Strings are a short byte length followed by UTF-8 bytes. Values are the same as in the text format, pages are
+ * separate files in both.
+ */
+public class BinaryAtlas {
+	public static final String SUFFIX = ".atlasb";
+	public static final int MAGIC = 0x47445841;
+	public static final int VERSION = 1;
+	public static final int FLAG_ROTATE = 1;
+	public static final int FLAG_SPLITS = 2;
+	public static final int FLAG_PADS = 4;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Array<TextureAtlas.TextureAtlasData.Page> pages = new Array<>();
+	private final ByteBuffer buffer;
+	/** position of the region table in buffer */
+	private final int regions;
+
+	/**
+	 * Reads page table of given file, regions are read in {@link #load(boolean)}
+	 *
+	 * @param imagesDir directory pages are in
+	 */
+	public BinaryAtlas (FileHandle file, FileHandle imagesDir) {
+		buffer = map(file);
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) throw new GdxRuntimeException("Not a binary atlas: " + file);
+		int version = buffer.getInt();
+		if (version != VERSION) throw new GdxRuntimeException("Unsupported binary atlas version " + version + ": " + file);
+		byte[] chars = new byte[64];
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			FileHandle textureFile = imagesDir.child(readString(buffer, chars));
+			float width = buffer.getFloat();
+			float height = buffer.getFloat();
+			Pixmap.Format format = Pixmap.Format.valueOf(readString(buffer, chars));
+			Texture.TextureFilter min = Texture.TextureFilter.valueOf(readString(buffer, chars));
+			Texture.TextureFilter mag = Texture.TextureFilter.valueOf(readString(buffer, chars));
+			Texture.TextureWrap uWrap = Texture.TextureWrap.valueOf(readString(buffer, chars));
+			Texture.TextureWrap vWrap = Texture.TextureWrap.valueOf(readString(buffer, chars));
+			boolean mipMaps = buffer.get() != 0;
+			pages.add(new TextureAtlas.TextureAtlasData.Page(textureFile, width, height, mipMaps, format, min, mag, uWrap, vWrap));
+		}
+		regions = buffer.position();
+	}
+
+	/**
+	 * @return pages, textures need to be set before {@link #load(boolean)}
+	 */
+	public Array<TextureAtlas.TextureAtlasData.Page> getPages () {
+		return pages;
+	}
+
+	/**
+	 * @param flip if regions should be flipped for y down
+	 * @return atlas with regions on textures of pages, it doesn't dispose them
+	 */
+	public TextureAtlas load (boolean flip) {
+		TextureAtlas atlas = new TextureAtlas() {
+			@Override public void dispose () {
+				// pages belong to whoever loaded them
+			}
+		};
+		for (TextureAtlas.TextureAtlasData.Page page : pages) {
+			if (page.texture == null) throw new GdxRuntimeException("Page not loaded: " + page.textureFile);
+			page.texture.setFilter(page.minFilter, page.magFilter);
+			page.texture.setWrap(page.uWrap, page.vWrap);
+		}
+		// buffer is ours, nothing else moves it
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position(regions);
+		byte[] chars = new byte[64];
+		int count = buffer.getInt();
+		Array<TextureAtlas.AtlasRegion> atlasRegions = atlas.getRegions();
+		atlasRegions.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			Texture texture = pages.get(buffer.getInt()).texture;
+			String name = readString(buffer, chars);
+			int index = buffer.getInt();
+			int left = buffer.getInt();
+			int top = buffer.getInt();
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			float offsetX = buffer.getFloat();
+			float offsetY = buffer.getFloat();
+			int originalWidth = buffer.getInt();
+			int originalHeight = buffer.getInt();
+			int flags = buffer.get();
+			boolean rotate = (flags & FLAG_ROTATE) != 0;
+			TextureAtlas.AtlasRegion region = atlas.addRegion(name, texture, left, top, rotate ? height : width,
+				rotate ? width : height);
+			region.index = index;
+			region.offsetX = offsetX;
+			region.offsetY = offsetY;
+			region.originalWidth = originalWidth;
+			region.originalHeight = originalHeight;
+			region.rotate = rotate;
+			if ((flags & FLAG_SPLITS) != 0) region.splits = readInts(buffer);
+			if ((flags & FLAG_PADS) != 0) region.pads = readInts(buffer);
+			if (flip) region.flip(false, true);
+		}
+		return atlas;
+	}
+
+	private static int[] readInts (ByteBuffer buffer) {
+		return new int[] {buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()};
+	}
+
+	private static String readString (ByteBuffer buffer, byte[] chars) {
+		int length = buffer.getShort() & 0xFFFF;
+		if (length > chars.length) chars = new byte[length];
+		buffer.get(chars, 0, length);
+		return new String(chars, 0, length, UTF_8);
+	}
+
+	/**
+	 * @return binary atlas file published next to given text atlas file
+	 */
+	public static String binaryFile (String atlasFile) {
+		int dot = atlasFile.lastIndexOf('.');
+		return (dot == -1 ? atlasFile : atlasFile.substring(0, dot)) + SUFFIX;
+	}
+
+	/**
+	 * @return contents of given file, mapped if it is a file on disk, read otherwise, android assets for example
+	 */
+	static ByteBuffer map (FileHandle file) {
+		if (file.type() != Files.FileType.Classpath) {
+			File target = file.file();
+			if (target.isFile()) {
+				RandomAccessFile raf = null;
+				try {
+					raf = new RandomAccessFile(target, "r");
+					FileChannel channel = raf.getChannel();
+					// mapping stays valid after channel is closed
+					return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				} catch (IOException ex) {
+					// we can still read it
+				} finally {
+					StreamUtils.closeQuietly(raf);
+				}
+			}
+		}
+		return ByteBuffer.wrap(file.readBytes());
+	}
+}
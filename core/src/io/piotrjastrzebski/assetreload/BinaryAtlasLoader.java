@@ -0,0 +1,56 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.SynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.TextureAtlasLoader;
+import com.badlogic.gdx.assets.loaders.TextureLoader;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Loads {@link BinaryAtlas} files, registered for {@link BinaryAtlas#SUFFIX}
+ *
+ * Pages are left to the {@link AssetManager}, same as in {@link SharedPageAtlasLoader}. Atlas read ahead of time is
+ * taken from {@link PreparedAssets}, if there is one.
+ */
+public class BinaryAtlasLoader extends SynchronousAssetLoader<TextureAtlas, TextureAtlasLoader.TextureAtlasParameter> {
+	private final PreparedAssets prepared;
+	private BinaryAtlas data;
+
+	public BinaryAtlasLoader (FileHandleResolver resolver, PreparedAssets prepared) {
+		super(resolver);
+		this.prepared = prepared;
+	}
+
+	@Override
+	public Array<AssetDescriptor> getDependencies (String fileName, FileHandle atlasFile,
+		TextureAtlasLoader.TextureAtlasParameter parameter) {
+		data = prepared.take(atlasFile, BinaryAtlas.class);
+		if (data == null) data = new BinaryAtlas(atlasFile, atlasFile.parent());
+		Array<AssetDescriptor> dependencies = new Array<>();
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			TextureLoader.TextureParameter params = new TextureLoader.TextureParameter();
+			params.format = page.format;
+			params.genMipMaps = page.useMipMaps;
+			params.minFilter = page.minFilter;
+			params.magFilter = page.magFilter;
+			dependencies.add(new AssetDescriptor<>(page.textureFile.path().replace('\\', '/'), Texture.class, params));
+		}
+		return dependencies;
+	}
+
+	@Override
+	public TextureAtlas load (AssetManager manager, String fileName, FileHandle file,
+		TextureAtlasLoader.TextureAtlasParameter parameter) {
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			page.texture = manager.get(page.textureFile.path().replace('\\', '/'), Texture.class);
+		}
+		TextureAtlas atlas = data.load(parameter != null && parameter.flip);
+		data = null;
+		return atlas;
+	}
+}
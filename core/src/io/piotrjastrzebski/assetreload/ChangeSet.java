@@ -0,0 +1,342 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+/**
+ * Raw asset files that changed, grouped by category and kind of change
+ *
+ * Paths are relative to raw assets root and use '/' as separator
+ */
+public class ChangeSet {
+	public enum Category {
+		ATLAS, PARTICLE, OTHER;
+
+		/**
+		 * @param path relative to raw assets root
+		 */
+		public static Category of (String path) {
+			int slash = path.indexOf('/');
+			String top = slash == -1 ? path : path.substring(0, slash);
+			if (top.equals("atlas")) return ATLAS;
+			if (top.equals("particles")) return PARTICLE;
+			return OTHER;
+		}
+	}
+
+	public enum Kind {
+		CREATED, MODIFIED, DELETED
+	}
+
+	private static final Category[] CATEGORIES = Category.values();
+	private static final Kind[] KINDS = Kind.values();
+
+	private final ObjectSet<String>[][] paths;
+	private final ObjectMap<String, String> files = new ObjectMap<>();
+	private final ReloadTrace trace = new ReloadTrace();
+	private final ObjectMap<String, ObjectSet<String>> regions = new ObjectMap<>();
+	private final PreparedAssets prepared = new PreparedAssets();
+	private final ObjectMap<String, Array<Patch>> patches = new ObjectMap<>();
+	private boolean everything;
+	private int version;
+
+	@SuppressWarnings("unchecked")
+	public ChangeSet () {
+		paths = new ObjectSet[CATEGORIES.length][KINDS.length];
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			for (int j = 0; j < KINDS.length; j++) {
+				paths[i][j] = new ObjectSet<>();
+			}
+		}
+	}
+
+	/**
+	 * @return change set that marks all assets as changed, for initial processing and when we lost track of changes
+	 */
+	public static ChangeSet everything () {
+		ChangeSet changes = new ChangeSet();
+		changes.everything = true;
+		return changes;
+	}
+
+	/**
+	 * Category is picked based on the path
+	 */
+	public void add (Kind kind, String path) {
+		add(Category.of(path), kind, path);
+	}
+
+	public void add (Category category, Kind kind, String path) {
+		ObjectSet<String>[] byKind = paths[category.ordinal()];
+		ObjectSet<String> created = byKind[Kind.CREATED.ordinal()];
+		ObjectSet<String> modified = byKind[Kind.MODIFIED.ordinal()];
+		ObjectSet<String> deleted = byKind[Kind.DELETED.ordinal()];
+		// keep the net effect of changes to same path
+		switch (kind) {
+		case CREATED:
+			if (deleted.remove(path)) {
+				modified.add(path);
+			} else if (!modified.contains(path)) {
+				created.add(path);
+			}
+			break;
+		case MODIFIED:
+			if (!created.contains(path)) modified.add(path);
+			break;
+		case DELETED:
+			modified.remove(path);
+			if (!created.remove(path)) deleted.add(path);
+			break;
+		}
+	}
+
+	public void setEverything (boolean everything) {
+		this.everything = everything;
+	}
+
+	/**
+	 * @return true if all assets should be treated as changed, regardless of paths
+	 */
+	public boolean isEverything () {
+		return everything;
+	}
+
+	/**
+	 * @return version of processed assets that includes these changes, 0 if not processed yet
+	 */
+	public int getVersion () {
+		return version;
+	}
+
+	public void setVersion (int version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return asset names mapped to files that hold their contents in {@link #getVersion()}, names that are not here
+	 * are loaded as they are
+	 */
+	public ObjectMap<String, String> getFiles () {
+		return files;
+	}
+
+	/**
+	 * @return names of regions in given atlas that are different after processing, null if we don't know which
+	 * ones are, so any of them could be
+	 */
+	public ObjectSet<String> getRegions (String atlas) {
+		return regions.get(atlas);
+	}
+
+	/**
+	 * @return atlases known to be processed, mapped to names of their regions that are different
+	 */
+	public ObjectMap<String, ObjectSet<String>> getRegions () {
+		return regions;
+	}
+
+	/**
+	 * Marks regions of given atlas as changed, atlas is known to be processed even if there are none
+	 */
+	public void addRegions (String atlas, ObjectSet<String> names) {
+		ObjectSet<String> changed = regions.get(atlas);
+		if (changed == null) {
+			changed = new ObjectSet<>();
+			regions.put(atlas, changed);
+		}
+		changed.addAll(names);
+	}
+
+	/**
+	 * @return asset data decoded during processing, to be handed over to {@link AssetManagers#prepare(PreparedAssets)}
+	 */
+	public PreparedAssets getPrepared () {
+		return prepared;
+	}
+
+	/**
+	 * @return patches that bring loaded pages of given atlas up to date, null if atlas needs to be loaded again
+	 */
+	public Array<Patch> getPatches (String atlas) {
+		return patches.get(atlas);
+	}
+
+	/**
+	 * Given patch is disposed with this change set
+	 */
+	public void addPatch (String atlas, Patch patch) {
+		Array<Patch> atlasPatches = patches.get(atlas);
+		if (atlasPatches == null) {
+			atlasPatches = new Array<>();
+			patches.put(atlas, atlasPatches);
+		}
+		atlasPatches.add(patch);
+	}
+
+	/**
+	 * @return timings of the reload these changes trigger
+	 */
+	public ReloadTrace getTrace () {
+		return trace;
+	}
+
+	public ObjectSet<String> get (Category category, Kind kind) {
+		return paths[category.ordinal()][kind.ordinal()];
+	}
+
+	/**
+	 * @return true if there are any changes in given category
+	 */
+	public boolean contains (Category category) {
+		if (everything) return true;
+		for (ObjectSet<String> set : paths[category.ordinal()]) {
+			if (set.size > 0) return true;
+		}
+		return false;
+	}
+
+	public boolean isEmpty () {
+		if (everything) return false;
+		for (Category category : CATEGORIES) {
+			if (contains(category)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return copy of changed paths, processed files and regions, without prepared assets, patches and trace, those
+	 * stay with this one
+	 */
+	public ChangeSet copy () {
+		ChangeSet copy = new ChangeSet();
+		copy.everything = everything;
+		copy.version = version;
+		copy.files.putAll(files);
+		for (ObjectMap.Entry<String, ObjectSet<String>> entry : regions) {
+			copy.addRegions(entry.key, entry.value);
+		}
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			for (int j = 0; j < KINDS.length; j++) {
+				copy.paths[i][j].addAll(paths[i][j]);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return true if given atlas was processed for these changes, everything processes all of them
+	 */
+	private boolean processed (String atlas) {
+		return everything || regions.containsKey(atlas);
+	}
+
+	/**
+	 * Adds all changes from other to this one, other is assumed to be newer
+	 */
+	public void merge (ChangeSet other) {
+		trace.merge(other.trace);
+		prepared.takeAll(other.prepared);
+		// patches bring pages up to date only if every processing of the atlas came with them
+		ObjectMap.Entries<String, Array<Patch>> entries = patches.entries();
+		while (entries.hasNext()) {
+			ObjectMap.Entry<String, Array<Patch>> entry = entries.next();
+			if (other.processed(entry.key) && !other.patches.containsKey(entry.key)) {
+				disposeAll(entry.value);
+				entries.remove();
+			}
+		}
+		for (ObjectMap.Entry<String, Array<Patch>> entry : other.patches) {
+			if (processed(entry.key) && !patches.containsKey(entry.key)) {
+				disposeAll(entry.value);
+				continue;
+			}
+			for (Patch patch : entry.value) {
+				addPatch(entry.key, patch);
+			}
+		}
+		other.patches.clear();
+		everything |= other.everything;
+		for (ObjectMap.Entry<String, ObjectSet<String>> entry : other.regions) {
+			addRegions(entry.key, entry.value);
+		}
+		if (other.version >= version) {
+			version = other.version;
+			files.putAll(other.files);
+		}
+		for (Category category : CATEGORIES) {
+			for (Kind kind : KINDS) {
+				for (String path : other.get(category, kind)) {
+					add(category, kind, path);
+				}
+			}
+		}
+	}
+
+	public void clear () {
+		everything = false;
+		version = 0;
+		files.clear();
+		trace.clear();
+		regions.clear();
+		prepared.dispose();
+		disposePatches();
+		for (Category category : CATEGORIES) {
+			for (Kind kind : KINDS) {
+				get(category, kind).clear();
+			}
+		}
+	}
+
+	/**
+	 * Disposes pixels of all patches, atlases they were for need to be loaded again
+	 */
+	public void disposePatches () {
+		for (Array<Patch> atlasPatches : patches.values()) {
+			disposeAll(atlasPatches);
+		}
+		patches.clear();
+	}
+
+	private static void disposeAll (Array<Patch> atlasPatches) {
+		for (Patch patch : atlasPatches) {
+			patch.dispose();
+		}
+	}
+
+	@Override public String toString () {
+		if (everything) return "ChangeSet{everything}";
+		StringBuilder sb = new StringBuilder("ChangeSet{");
+		boolean first = true;
+		for (Category category : CATEGORIES) {
+			for (Kind kind : KINDS) {
+				ObjectSet<String> set = get(category, kind);
+				if (set.size == 0) continue;
+				if (!first) sb.append(", ");
+				first = false;
+				sb.append(category).append(' ').append(kind).append(' ').append(set);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Pixels that changed in a page, page keeps its layout so they can be drawn over texture that is loaded already
+	 */
+	public static class Patch implements Disposable {
+		/** page that is patched, relative to assets root */
+		public String page;
+		/** page with patch applied, as published */
+		public String file;
+		public int x;
+		public int y;
+		public Pixmap pixmap;
+
+		@Override public void dispose () {
+			if (pixmap != null) pixmap.dispose();
+			pixmap = null;
+		}
+	}
+}
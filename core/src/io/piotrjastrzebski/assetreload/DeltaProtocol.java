@@ -0,0 +1,269 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wire format of processed asset changes sent from desktop to a device, over a single TCP connection
+ *
+ * Device listens, desktop connects, through adb forward for a real device. Big endian, strings as in
+ * {@link DataOutputStream#writeUTF(String)}:
+ * <pre>
+ * device:  int magic, int version, int file count, per file: string path, string hash
+ * desktop: per delta: byte DELTA, change set, int file count, per file: string path, string hash, byte flags,
+ *          if not FLAG_DELETED: int length, int stored length, stored bytes
+ * device:  per delta: byte ACK, int version of the change set
+ * </pre>
+ * Device starts with files it already has, so desktop sends only files that differ from those, hashes are computed
+ * by desktop and kept by the device as they were sent. Files are deflated unless that doesn't make them smaller,
+ * pages are png already. Change set is sent without patches and prepared assets, device loads files it got.
+ */
+public class DeltaProtocol {
+	public static final int MAGIC = 0x47445844;
+	public static final int VERSION = 1;
+	public static final int DEFAULT_PORT = 47853;
+	public static final byte DELTA = 1;
+	public static final byte ACK = 2;
+	public static final int FLAG_DELETED = 1;
+	public static final int FLAG_DEFLATED = 2;
+	/** biggest file we accept, lengths come from the other side and are checked before anything is allocated */
+	public static final int MAX_FILE = 64 * 1024 * 1024;
+	/** most files, regions or paths in a single message */
+	public static final int MAX_COUNT = 1024 * 1024;
+
+	private DeltaProtocol () {}
+
+	/**
+	 * Single file of a delta, null data if it was deleted
+	 */
+	public static class FileDelta {
+		/** relative to assets root */
+		public String path;
+		public String hash;
+		public byte[] data;
+
+		public FileDelta () {}
+
+		public FileDelta (String path, String hash, byte[] data) {
+			this.path = path;
+			this.hash = hash;
+			this.data = data;
+		}
+	}
+
+	public static void writeHello (DataOutputStream out, ObjectMap<String, String> hashes) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(hashes.size);
+		for (ObjectMap.Entry<String, String> entry : hashes) {
+			out.writeUTF(entry.key);
+			out.writeUTF(entry.value);
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return paths mapped to hashes of files device has
+	 */
+	public static ObjectMap<String, String> readHello (DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException("Not an asset delta connection");
+		int version = in.readInt();
+		if (version != VERSION) throw new IOException("Unsupported delta protocol version " + version);
+		int count = readLength(in, MAX_COUNT);
+		ObjectMap<String, String> hashes = new ObjectMap<>(Math.max(count, 16));
+		for (int i = 0; i < count; i++) {
+			String path = in.readUTF();
+			hashes.put(path, in.readUTF());
+		}
+		return hashes;
+	}
+
+	public static void writeDelta (DataOutputStream out, ChangeSet changes, Array<FileDelta> files) throws IOException {
+		out.writeByte(DELTA);
+		writeChanges(out, changes);
+		out.writeInt(files.size);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			byte[] buffer = new byte[0];
+			for (FileDelta file : files) {
+				out.writeUTF(file.path);
+				out.writeUTF(file.hash);
+				if (file.data == null) {
+					out.writeByte(FLAG_DELETED);
+					continue;
+				}
+				if (buffer.length < file.data.length + 64) buffer = new byte[file.data.length + 64];
+				deflater.reset();
+				deflater.setInput(file.data);
+				deflater.finish();
+				int deflated = 0;
+				while (!deflater.finished() && deflated < buffer.length) {
+					deflated += deflater.deflate(buffer, deflated, buffer.length - deflated);
+				}
+				if (deflater.finished() && deflated < file.data.length) {
+					out.writeByte(FLAG_DEFLATED);
+					out.writeInt(file.data.length);
+					out.writeInt(deflated);
+					out.write(buffer, 0, deflated);
+				} else {
+					out.writeByte(0);
+					out.writeInt(file.data.length);
+					out.writeInt(file.data.length);
+					out.write(file.data);
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads delta after its {@link #DELTA} type
+	 *
+	 * @param files filled with files of the delta
+	 * @return changes that files are for
+	 */
+	public static ChangeSet readDelta (DataInputStream in, Array<FileDelta> files) throws IOException {
+		ChangeSet changes = readChanges(in);
+		int count = readLength(in, MAX_COUNT);
+		Inflater inflater = new Inflater();
+		try {
+			byte[] stored = new byte[0];
+			for (int i = 0; i < count; i++) {
+				FileDelta file = new FileDelta();
+				file.path = in.readUTF();
+				file.hash = in.readUTF();
+				int flags = in.readByte();
+				files.add(file);
+				if ((flags & FLAG_DELETED) != 0) continue;
+				int length = readLength(in, MAX_FILE);
+				int storedLength = readLength(in, MAX_FILE);
+				if ((flags & FLAG_DEFLATED) == 0) {
+					file.data = new byte[length];
+					in.readFully(file.data);
+					continue;
+				}
+				if (stored.length < storedLength) stored = new byte[storedLength];
+				in.readFully(stored, 0, storedLength);
+				file.data = new byte[length];
+				inflater.reset();
+				inflater.setInput(stored, 0, storedLength);
+				try {
+					int inflated = 0;
+					while (inflated < length && !inflater.finished()) {
+						int read = inflater.inflate(file.data, inflated, length - inflated);
+						if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+						inflated += read;
+					}
+					if (inflated != length) throw new IOException("Corrupted delta of " + file.path);
+				} catch (DataFormatException ex) {
+					throw new IOException("Corrupted delta of " + file.path, ex);
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+		return changes;
+	}
+
+	public static void writeAck (DataOutputStream out, int version) throws IOException {
+		out.writeByte(ACK);
+		out.writeInt(version);
+		out.flush();
+	}
+
+	/**
+	 * @return version device acknowledged
+	 */
+	public static int readAck (DataInputStream in) throws IOException {
+		int type = in.readByte();
+		if (type != ACK) throw new IOException("Expected ack, got " + type);
+		return in.readInt();
+	}
+
+	private static void writeChanges (DataOutputStream out, ChangeSet changes) throws IOException {
+		out.writeBoolean(changes.isEverything());
+		out.writeInt(changes.getVersion());
+		ObjectMap<String, String> files = changes.getFiles();
+		out.writeInt(files.size);
+		for (ObjectMap.Entry<String, String> entry : files) {
+			out.writeUTF(entry.key);
+			out.writeUTF(entry.value);
+		}
+		ObjectMap<String, ObjectSet<String>> regions = changes.getRegions();
+		out.writeInt(regions.size);
+		for (ObjectMap.Entry<String, ObjectSet<String>> entry : regions) {
+			out.writeUTF(entry.key);
+			out.writeInt(entry.value.size);
+			for (String name : entry.value) {
+				out.writeUTF(name);
+			}
+		}
+		ChangeSet.Category[] categories = ChangeSet.Category.values();
+		ChangeSet.Kind[] kinds = ChangeSet.Kind.values();
+		int count = 0;
+		for (ChangeSet.Category category : categories) {
+			for (ChangeSet.Kind kind : kinds) {
+				count += changes.get(category, kind).size;
+			}
+		}
+		out.writeInt(count);
+		for (ChangeSet.Category category : categories) {
+			for (ChangeSet.Kind kind : kinds) {
+				for (String path : changes.get(category, kind)) {
+					out.writeByte(category.ordinal());
+					out.writeByte(kind.ordinal());
+					out.writeUTF(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return length or count read from the stream, if it is one we are willing to allocate for
+	 */
+	private static int readLength (DataInputStream in, int max) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > max) throw new IOException("Invalid length " + length + ", limit is " + max);
+		return length;
+	}
+
+	private static ChangeSet readChanges (DataInputStream in) throws IOException {
+		ChangeSet changes = new ChangeSet();
+		changes.setEverything(in.readBoolean());
+		changes.setVersion(in.readInt());
+		int count = readLength(in, MAX_COUNT);
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			changes.getFiles().put(name, in.readUTF());
+		}
+		count = readLength(in, MAX_COUNT);
+		for (int i = 0; i < count; i++) {
+			String atlas = in.readUTF();
+			int names = readLength(in, MAX_COUNT);
+			ObjectSet<String> regions = new ObjectSet<>(Math.max(names, 16));
+			for (int j = 0; j < names; j++) {
+				regions.add(in.readUTF());
+			}
+			changes.addRegions(atlas, regions);
+		}
+		ChangeSet.Category[] categories = ChangeSet.Category.values();
+		ChangeSet.Kind[] kinds = ChangeSet.Kind.values();
+		count = readLength(in, MAX_COUNT);
+		for (int i = 0; i < count; i++) {
+			ChangeSet.Category category = categories[in.readByte()];
+			ChangeSet.Kind kind = kinds[in.readByte()];
+			changes.add(category, kind, in.readUTF());
+		}
+		return changes;
+	}
+}
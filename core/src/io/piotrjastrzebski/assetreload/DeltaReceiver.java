@@ -0,0 +1,183 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Receives processed assets sent from desktop, see {@link DeltaProtocol}
+ *
+ * Listens on a port of the loopback interface, one connection at a time, adb forward is how desktop gets to it. Nothing
+ * else on the network can write our files. Files of a delta are written under the root, each to a temporary file
+ * that is renamed once complete, then the listener gets the changes on receiver thread. Only files in the delta are
+ * touched, so it takes as long as the change is big. Hashes of received files are kept next to them, so a new
+ * connection picks up where the last one ended.
+ */
+public class DeltaReceiver {
+	private static final String TAG = DeltaReceiver.class.getSimpleName();
+	private static final String MANIFEST = ".delta-manifest";
+
+	private final FileHandle root;
+	private final Platform.Listener listener;
+	/** received paths mapped to their hashes */
+	private final ObjectMap<String, String> hashes = new ObjectMap<>();
+	private final ServerSocket server;
+	private Thread thread;
+	private volatile Socket socket;
+	private volatile boolean running = true;
+
+	/**
+	 * Binds given port on loopback, connections are accepted after {@link #start()}
+	 *
+	 * @param root directory files are written to
+	 * @param port 0 for any free port, see {@link #getPort()}
+	 */
+	public DeltaReceiver (FileHandle root, int port, Platform.Listener listener) {
+		this.root = root;
+		this.listener = listener;
+		try {
+			server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		} catch (IOException ex) {
+			throw new GdxRuntimeException("Can't listen on port " + port, ex);
+		}
+		loadManifest();
+	}
+
+	public void start () {
+		thread = new Thread(new Runnable() {
+			@Override public void run () {
+				accept();
+			}
+		}, TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPort () {
+		return server.getLocalPort();
+	}
+
+	private void accept () {
+		Gdx.app.log(TAG, "Waiting for assets on port " + getPort());
+		while (running) {
+			Socket socket = null;
+			try {
+				socket = server.accept();
+				this.socket = socket;
+				Gdx.app.log(TAG, "Connected " + socket.getRemoteSocketAddress());
+				receive(socket);
+				Gdx.app.log(TAG, "Disconnected " + socket.getRemoteSocketAddress());
+			} catch (IOException ex) {
+				if (running) Gdx.app.error(TAG, "Connection failed", ex);
+			} finally {
+				this.socket = null;
+				close(socket);
+			}
+		}
+	}
+
+	private void receive (Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		DeltaProtocol.writeHello(out, hashes);
+		int type;
+		while ((type = in.read()) != -1) {
+			if (type != DeltaProtocol.DELTA) throw new IOException("Unexpected message " + type);
+			long start = System.nanoTime();
+			Array<DeltaProtocol.FileDelta> files = new Array<>();
+			ChangeSet changes = DeltaProtocol.readDelta(in, files);
+			int bytes = 0;
+			for (DeltaProtocol.FileDelta file : files) {
+				apply(file);
+				if (file.data != null) bytes += file.data.length;
+			}
+			saveManifest();
+			DeltaProtocol.writeAck(out, changes.getVersion());
+			Gdx.app.log(TAG, "Received version " + changes.getVersion() + ", " + files.size + " files, " + bytes / 1024
+				+ "kb in " + (System.nanoTime() - start) / 1000000 + "ms");
+			changes.getTrace().mark(ReloadTrace.Stage.PROCESSED);
+			listener.assetsProcessed(changes);
+		}
+	}
+
+	private void apply (DeltaProtocol.FileDelta delta) throws IOException {
+		if (delta.path.startsWith("/") || delta.path.contains("..") || delta.path.contains("\\")
+			|| delta.path.startsWith(MANIFEST)) {
+			throw new IOException("Invalid path " + delta.path);
+		}
+		File target = root.child(delta.path).file();
+		if (delta.data == null) {
+			if (target.exists() && !target.delete()) Gdx.app.error(TAG, "Can't delete " + target);
+			hashes.remove(delta.path);
+			return;
+		}
+		replace(target, delta.data);
+		hashes.put(delta.path, delta.hash);
+	}
+
+	/**
+	 * Game never sees a file half written, it is written next to target and renamed
+	 */
+	private static void replace (File target, byte[] data) throws IOException {
+		File dir = target.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+		File tmp = new File(dir, target.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(data);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		// rename doesn't replace on some platforms
+		if (!tmp.renameTo(target) && !(target.delete() && tmp.renameTo(target))) {
+			tmp.delete();
+			throw new IOException("Can't replace " + target);
+		}
+	}
+
+	private void loadManifest () {
+		FileHandle manifest = root.child(MANIFEST);
+		if (!manifest.exists()) return;
+		for (String line : manifest.readString("UTF-8").split("\n")) {
+			int space = line.indexOf(' ');
+			if (space == -1) continue;
+			String path = line.substring(space + 1);
+			// someone could have cleared the files, they have to be sent again
+			if (root.child(path).exists()) hashes.put(path, line.substring(0, space));
+		}
+	}
+
+	private void saveManifest () throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (ObjectMap.Entry<String, String> entry : hashes) {
+			sb.append(entry.value).append(' ').append(entry.key).append('\n');
+		}
+		replace(root.child(MANIFEST).file(), sb.toString().getBytes("UTF-8"));
+	}
+
+	public void dispose () {
+		running = false;
+		try {
+			server.close();
+		} catch (IOException ignored) {}
+		close(socket);
+	}
+
+	/**
+	 * Sockets are not Closeable on older androids
+	 */
+	private static void close (Socket socket) {
+		if (socket == null) return;
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+}
@@ -0,0 +1,136 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.ParticleEmitter;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * Pool of {@link ParticleEffect} instances made from a template
+ *
+ * Unlike {@link com.badlogic.gdx.graphics.g2d.ParticleEffectPool}, template can be changed. Every instance, obtained
+ * or free, is patched in place to match new template, so nothing is allocated unless emitters were added or removed.
+ */
+public class EffectPool extends Pool<ParticleEffect> {
+	private ParticleEffect template;
+	/** every instance we made, so we can patch them on reload */
+	private final Array<ParticleEffect> instances = new Array<>();
+
+	public EffectPool (ParticleEffect template) {
+		this.template = template;
+	}
+
+	@Override protected ParticleEffect newObject () {
+		ParticleEffect effect = new ParticleEffect(template);
+		instances.add(effect);
+		return effect;
+	}
+
+	@Override protected void reset (ParticleEffect effect) {
+		effect.reset();
+	}
+
+	/**
+	 * Patches all instances to match given template
+	 *
+	 * Emitters are patched if instance has the same ones, by name and order, otherwise they are replaced
+	 */
+	public void setTemplate (ParticleEffect template) {
+		this.template = template;
+		Array<ParticleEmitter> emitters = template.getEmitters();
+		for (ParticleEffect effect : instances) {
+			Array<ParticleEmitter> target = effect.getEmitters();
+			if (compatible(target, emitters)) {
+				for (int i = 0; i < emitters.size; i++) {
+					patch(target.get(i), emitters.get(i));
+				}
+			} else {
+				target.clear();
+				for (ParticleEmitter emitter : emitters) {
+					target.add(new ParticleEmitter(emitter));
+				}
+			}
+		}
+	}
+
+	public ParticleEffect getTemplate () {
+		return template;
+	}
+
+	private static boolean compatible (Array<ParticleEmitter> target, Array<ParticleEmitter> source) {
+		if (target.size != source.size) return false;
+		for (int i = 0; i < source.size; i++) {
+			String name = source.get(i).getName();
+			if (name == null? target.get(i).getName() != null : !name.equals(target.get(i).getName())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies settings of source to target, particles that are alive stay alive
+	 */
+	static void patch (ParticleEmitter target, ParticleEmitter source) {
+		copy(target.getDelay(), source.getDelay());
+		copy(target.getDuration(), source.getDuration());
+		copy(target.getEmission(), source.getEmission());
+		copy(target.getLife(), source.getLife());
+		copy(target.getLifeOffset(), source.getLifeOffset());
+		copy(target.getScale(), source.getScale());
+		copy(target.getRotation(), source.getRotation());
+		copy(target.getVelocity(), source.getVelocity());
+		copy(target.getAngle(), source.getAngle());
+		copy(target.getWind(), source.getWind());
+		copy(target.getGravity(), source.getGravity());
+		copy(target.getTransparency(), source.getTransparency());
+		copy(target.getTint(), source.getTint());
+		copy(target.getXOffsetValue(), source.getXOffsetValue());
+		copy(target.getYOffsetValue(), source.getYOffsetValue());
+		copy(target.getSpawnWidth(), source.getSpawnWidth());
+		copy(target.getSpawnHeight(), source.getSpawnHeight());
+		target.getSpawnShape().load(source.getSpawnShape());
+		target.setAttached(source.isAttached());
+		target.setContinuous(source.isContinuous());
+		target.setAligned(source.isAligned());
+		target.setAdditive(source.isAdditive());
+		target.setBehind(source.isBehind());
+		target.setPremultipliedAlpha(source.isPremultipliedAlpha());
+		target.setCleansUpBlendFunction(source.cleansUpBlendFunction());
+		target.setMinParticleCount(source.getMinParticleCount());
+		// this one reallocates particles
+		if (target.getMaxParticleCount() != source.getMaxParticleCount()) {
+			target.setMaxParticleCount(source.getMaxParticleCount());
+		}
+		target.setImagePath(source.getImagePath());
+		if (target.getSprite() != source.getSprite()) target.setSprite(source.getSprite());
+	}
+
+	private static void copy (ParticleEmitter.RangedNumericValue target, ParticleEmitter.RangedNumericValue source) {
+		target.setActive(source.isActive());
+		target.setAlwaysActive(source.isAlwaysActive());
+		target.setLow(source.getLowMin(), source.getLowMax());
+	}
+
+	private static void copy (ParticleEmitter.ScaledNumericValue target, ParticleEmitter.ScaledNumericValue source) {
+		copy((ParticleEmitter.RangedNumericValue)target, source);
+		target.setHigh(source.getHighMin(), source.getHighMax());
+		target.setRelative(source.isRelative());
+		target.setScaling(copy(target.getScaling(), source.getScaling()));
+		target.setTimeline(copy(target.getTimeline(), source.getTimeline()));
+	}
+
+	private static void copy (ParticleEmitter.GradientColorValue target, ParticleEmitter.GradientColorValue source) {
+		target.setActive(source.isActive());
+		target.setAlwaysActive(source.isAlwaysActive());
+		target.setColors(copy(target.getColors(), source.getColors()));
+		target.setTimeline(copy(target.getTimeline(), source.getTimeline()));
+	}
+
+	/**
+	 * @return target with contents of source, or a copy of source if they differ in length
+	 */
+	private static float[] copy (float[] target, float[] source) {
+		if (target.length != source.length) return source.clone();
+		System.arraycopy(source, 0, target, 0, source.length);
+		return target;
+	}
+}
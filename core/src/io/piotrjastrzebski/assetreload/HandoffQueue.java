@@ -0,0 +1,87 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.math.MathUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue that hands items from one producer thread over to one consumer thread, without locks
+ *
+ * Ring buffer with a position for each side, each side writes only its own. Producer publishes an item with an
+ * ordered write of its position after the slot is filled, consumer frees the slot before it moves its own, so
+ * neither side waits for the other and nothing is allocated after construction. Each side keeps a copy of the
+ * other one's position and reads the shared one only when the copy says the queue is full or empty.
+ *
+ * Only one thread may offer and only one thread may poll at a time.
+ */
+public class HandoffQueue<T> {
+	private final Object[] items;
+	private final int mask;
+	/** next slot to fill, written by producer */
+	private final AtomicLong tail = new AtomicLong();
+	/** next slot to take, written by consumer */
+	private final AtomicLong head = new AtomicLong();
+	/** last head producer has seen */
+	private long producerHead;
+	/** last tail consumer has seen */
+	private long consumerTail;
+
+	/**
+	 * @param capacity rounded up to power of two
+	 */
+	public HandoffQueue (int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		items = new Object[MathUtils.nextPowerOfTwo(capacity)];
+		mask = items.length - 1;
+	}
+
+	/**
+	 * Called by producer
+	 *
+	 * @return false if queue is full, item was not added
+	 */
+	public boolean offer (T item) {
+		if (item == null) throw new IllegalArgumentException("item can't be null.");
+		long t = tail.get();
+		if (t - producerHead >= items.length) {
+			producerHead = head.get();
+			if (t - producerHead >= items.length) return false;
+		}
+		items[(int)t & mask] = item;
+		// slot is filled before consumer can see it
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Called by consumer
+	 *
+	 * @return oldest item, null if queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll () {
+		long h = head.get();
+		if (h >= consumerTail) {
+			consumerTail = tail.get();
+			if (h >= consumerTail) return null;
+		}
+		int index = (int)h & mask;
+		T item = (T)items[index];
+		items[index] = null;
+		// slot is cleared before producer can reuse it
+		head.lazySet(h + 1);
+		return item;
+	}
+
+	/**
+	 * @return number of items in the queue, can be out of date by the time it returns if called by either side
+	 */
+	public int size () {
+		long h = head.get();
+		return (int)(tail.get() - h);
+	}
+
+	public int capacity () {
+		return items.length;
+	}
+}
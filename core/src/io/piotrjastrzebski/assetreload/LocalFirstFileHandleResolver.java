@@ -0,0 +1,23 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+
+/**
+ * Resolves to a file under given root if there is one, to internal file otherwise
+ *
+ * Assets received at runtime take precedence over ones that shipped with the app.
+ */
+public class LocalFirstFileHandleResolver implements FileHandleResolver {
+	private final FileHandle root;
+
+	public LocalFirstFileHandleResolver (FileHandle root) {
+		this.root = root;
+	}
+
+	@Override public FileHandle resolve (String fileName) {
+		FileHandle local = root.child(fileName);
+		return local.exists() ? local : Gdx.files.internal(fileName);
+	}
+}
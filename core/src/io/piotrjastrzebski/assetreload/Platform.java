@@ -1,15 +1,25 @@
 package io.piotrjastrzebski.assetreload;
 
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+
 /**
  * Created by EvilEntity on 31/07/2016.
  */
 public interface Platform {
 	void start(Listener listener, boolean watch);
-	void processAssets (String type);
-	void processAssetsAsync (String particle);
+	void processAssets (ChangeSet changes);
+	void processAssetsAsync (ChangeSet changes);
+
+	/**
+	 * @return resolver for processed assets, as this platform keeps them
+	 */
+	FileHandleResolver getResolver ();
 
 	void dispose();
 	interface Listener {
-		void assetsProcessed (String type);
+		/**
+		 * Called on the thread that processed the changes, never on more than one at a time
+		 */
+		void assetsProcessed (ChangeSet changes);
 	}
 }
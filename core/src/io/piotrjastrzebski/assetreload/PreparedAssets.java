@@ -0,0 +1,64 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+
+/**
+ * Asset data decoded ahead of time, off the render thread, by path of the file it came from
+ *
+ * Loaders take data from here instead of reading the file, so render thread is left with GPU upload only. Data that is
+ * not taken is disposed with this, if it is {@link Disposable}.
+ */
+public class PreparedAssets implements Disposable {
+	private final ObjectMap<String, Object> data = new ObjectMap<>();
+
+	/**
+	 * @param path of file data came from, relative to assets root, as loaders see it
+	 */
+	public synchronized void put (String path, Object value) {
+		Object old = data.put(path, value);
+		if (old != null && old != value) dispose(old);
+	}
+
+	/**
+	 * @return data of given type prepared for given file, null if there is none, it is no longer held here
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T take (FileHandle file, Class<T> type) {
+		String path = file.path().replace('\\', '/');
+		Object value = data.get(path);
+		if (!type.isInstance(value)) return null;
+		data.remove(path);
+		return (T)value;
+	}
+
+	/**
+	 * Moves everything from other to this one
+	 */
+	public void takeAll (PreparedAssets other) {
+		ObjectMap<String, Object> taken;
+		synchronized (other) {
+			taken = new ObjectMap<>(other.data);
+			other.data.clear();
+		}
+		for (ObjectMap.Entry<String, Object> entry : taken) {
+			put(entry.key, entry.value);
+		}
+	}
+
+	public synchronized int size () {
+		return data.size;
+	}
+
+	private static void dispose (Object value) {
+		if (value instanceof Disposable) ((Disposable)value).dispose();
+	}
+
+	@Override public synchronized void dispose () {
+		for (Object value : data.values()) {
+			dispose(value);
+		}
+		data.clear();
+	}
+}
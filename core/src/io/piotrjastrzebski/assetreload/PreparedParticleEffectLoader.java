@@ -0,0 +1,31 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.ParticleEffectLoader;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+
+/**
+ * Same as {@link ParticleEffectLoader}, but uses effect with emitters parsed by {@link PreparedAssets} if there is one,
+ * only emitter images are loaded here. Effects with images outside of an atlas are loaded as usual
+ */
+public class PreparedParticleEffectLoader extends ParticleEffectLoader {
+	private final PreparedAssets prepared;
+
+	public PreparedParticleEffectLoader (FileHandleResolver resolver, PreparedAssets prepared) {
+		super(resolver);
+		this.prepared = prepared;
+	}
+
+	@Override public ParticleEffect load (AssetManager manager, String fileName, FileHandle file,
+		ParticleEffectParameter param) {
+		// effect owns textures it loads from image files, only ParticleEffect#load can set that up
+		if (param == null || param.atlasFile == null) return super.load(manager, fileName, file, param);
+		ParticleEffect effect = prepared.take(file, ParticleEffect.class);
+		if (effect == null) return super.load(manager, fileName, file, param);
+		effect.loadEmitterImages(manager.get(param.atlasFile, TextureAtlas.class), param.atlasPrefix);
+		return effect;
+	}
+}
@@ -0,0 +1,69 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AsynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.TextureLoader;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.glutils.FileTextureData;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Same as {@link TextureLoader}, but uses {@link Pixmap} from {@link PreparedAssets} if there is one for the file
+ *
+ * Texture is still backed by its file, so it can be reloaded when context is lost.
+ */
+public class PreparedTextureLoader extends AsynchronousAssetLoader<Texture, TextureLoader.TextureParameter> {
+	private final PreparedAssets prepared;
+	private TextureData data;
+	private Texture texture;
+
+	public PreparedTextureLoader (FileHandleResolver resolver, PreparedAssets prepared) {
+		super(resolver);
+		this.prepared = prepared;
+	}
+
+	@Override public void loadAsync (AssetManager manager, String fileName, FileHandle file,
+		TextureLoader.TextureParameter parameter) {
+		texture = parameter != null ? parameter.texture : null;
+		if (parameter != null && parameter.textureData != null) {
+			data = parameter.textureData;
+		} else {
+			Pixmap.Format format = parameter != null ? parameter.format : null;
+			boolean genMipMaps = parameter != null && parameter.genMipMaps;
+			Pixmap pixmap = prepared.take(file, Pixmap.class);
+			if (pixmap != null) {
+				data = new FileTextureData(file, pixmap, format, genMipMaps);
+			} else {
+				data = TextureData.Factory.loadFromFile(file, format, genMipMaps);
+			}
+		}
+		if (!data.isPrepared()) data.prepare();
+	}
+
+	@Override public Texture loadSync (AssetManager manager, String fileName, FileHandle file,
+		TextureLoader.TextureParameter parameter) {
+		Texture texture = this.texture;
+		if (texture != null) {
+			texture.load(data);
+		} else {
+			texture = new Texture(data);
+		}
+		if (parameter != null) {
+			texture.setFilter(parameter.minFilter, parameter.magFilter);
+			texture.setWrap(parameter.wrapU, parameter.wrapV);
+		}
+		data = null;
+		this.texture = null;
+		return texture;
+	}
+
+	@Override public Array<AssetDescriptor> getDependencies (String fileName, FileHandle file,
+		TextureLoader.TextureParameter parameter) {
+		return null;
+	}
+}
@@ -0,0 +1,76 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+import java.util.Arrays;
+
+/**
+ * Interned region names, components store an int handle and get their region with an array lookup
+ *
+ * Handles stay the same when atlas is reloaded, {@link #rebind(TextureAtlas, ObjectSet)} changes regions they point at
+ */
+public class RegionHandles {
+	private final ObjectIntMap<String> handles = new ObjectIntMap<>();
+	private final Array<String> names = new Array<>();
+	private TextureRegion[] regions = new TextureRegion[16];
+	private TextureAtlas atlas;
+
+	/**
+	 * @return handle of region with given name, same one for every call with that name
+	 */
+	public int handle (String name) {
+		int handle = handles.get(name, -1);
+		if (handle != -1) return handle;
+		handle = names.size;
+		names.add(name);
+		handles.put(name, handle);
+		if (handle == regions.length) regions = Arrays.copyOf(regions, handle * 2);
+		if (atlas != null) regions[handle] = atlas.findRegion(name);
+		return handle;
+	}
+
+	/**
+	 * @return region for given handle, null if there is no such region in current atlas
+	 */
+	public TextureRegion get (int handle) {
+		if (handle < 0) return null;
+		return regions[handle];
+	}
+
+	public String getName (int handle) {
+		return names.get(handle);
+	}
+
+	public int size () {
+		return names.size;
+	}
+
+	/**
+	 * Points handles at regions in given atlas, in a single pass over its regions
+	 *
+	 * @param changed names of regions that are different in given atlas, null to rebind all of them
+	 */
+	public void rebind (TextureAtlas atlas, ObjectSet<String> changed) {
+		this.atlas = atlas;
+		if (changed == null) {
+			Arrays.fill(regions, null);
+		} else {
+			for (String name : changed) {
+				int handle = handles.get(name, -1);
+				if (handle != -1) regions[handle] = null;
+			}
+		}
+		Array<TextureAtlas.AtlasRegion> atlasRegions = atlas.getRegions();
+		for (int i = 0; i < atlasRegions.size; i++) {
+			TextureAtlas.AtlasRegion region = atlasRegions.get(i);
+			if (changed != null && !changed.contains(region.name)) continue;
+			int handle = handles.get(region.name, -1);
+			// first region with a name wins, same as findRegion
+			if (handle != -1 && regions[handle] == null) regions[handle] = region;
+		}
+	}
+}
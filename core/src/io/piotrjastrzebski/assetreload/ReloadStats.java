@@ -0,0 +1,170 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Collects {@link ReloadTrace}s of finished reloads
+ *
+ * Keeps recent durations of each stage for percentiles, and counts reloads, coalesced and dropped events. Meant to
+ * be used from a single thread.
+ */
+public class ReloadStats {
+	private static final String TAG = ReloadStats.class.getSimpleName();
+	private static final ReloadTrace.Stage[] STAGES = ReloadTrace.Stage.values();
+	/** number of recent samples percentiles are calculated from */
+	public static final int WINDOW = 256;
+
+	private final Timings[] stages = new Timings[STAGES.length];
+	private final Timings total = new Timings();
+	private int reloads;
+	private int events;
+	private int coalesced;
+	private int dropped;
+
+	public ReloadStats () {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new Timings();
+		}
+	}
+
+	public void record (ReloadTrace trace) {
+		reloads++;
+		events += trace.getEvents();
+		if (trace.getEvents() > 1) coalesced += trace.getEvents() - 1;
+		dropped += trace.getDropped();
+		for (ReloadTrace.Stage stage : STAGES) {
+			long duration = trace.getDuration(stage);
+			if (duration >= 0) stages[stage.ordinal()].add(duration);
+		}
+		total.add(trace.getTotal());
+	}
+
+	public Timings get (ReloadTrace.Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	public Timings getTotal () {
+		return total;
+	}
+
+	public int getReloads () {
+		return reloads;
+	}
+
+	/**
+	 * @return change events that were merged into another reload
+	 */
+	public int getCoalesced () {
+		return coalesced;
+	}
+
+	public int getDropped () {
+		return dropped;
+	}
+
+	public void log () {
+		Gdx.app.log(TAG, "Reloads " + reloads + ", events " + events + ", coalesced " + coalesced + ", dropped " + dropped);
+		for (ReloadTrace.Stage stage : STAGES) {
+			Timings timings = stages[stage.ordinal()];
+			if (timings.getCount() > 0) Gdx.app.log(TAG, stage + " " + timings);
+		}
+		Gdx.app.log(TAG, "TOTAL " + total);
+	}
+
+	public String toJson () {
+		StringWriter out = new StringWriter();
+		JsonWriter json = new JsonWriter(out);
+		json.setOutputType(JsonWriter.OutputType.json);
+		try {
+			json.object();
+			json.set("reloads", reloads);
+			json.set("events", events);
+			json.set("coalesced", coalesced);
+			json.set("dropped", dropped);
+			json.object("stages");
+			for (ReloadTrace.Stage stage : STAGES) {
+				Timings timings = stages[stage.ordinal()];
+				if (timings.getCount() > 0) timings.write(json, stage.name());
+			}
+			json.pop();
+			total.write(json, "total");
+			json.pop();
+			json.close();
+		} catch (IOException ex) {
+			throw new GdxRuntimeException(ex);
+		}
+		return out.toString();
+	}
+
+	public void dump (FileHandle file) {
+		file.writeString(toJson(), false);
+		Gdx.app.log(TAG, "Stats written to " + file.path());
+	}
+
+	/**
+	 * Recent durations of a stage, in nanos
+	 */
+	public static class Timings {
+		private final long[] samples = new long[WINDOW];
+		private final long[] sorted = new long[WINDOW];
+		private int count;
+		private int index;
+		private long max;
+
+		public void add (long nanos) {
+			samples[index] = nanos;
+			index = (index + 1) % WINDOW;
+			count++;
+			max = Math.max(max, nanos);
+		}
+
+		/**
+		 * @return number of samples added
+		 */
+		public int getCount () {
+			return count;
+		}
+
+		/**
+		 * @param percentile between 0 and 1
+		 * @return duration in millis at given percentile of recent samples
+		 */
+		public float percentile (float percentile) {
+			int size = Math.min(count, WINDOW);
+			if (size == 0) return 0;
+			System.arraycopy(samples, 0, sorted, 0, size);
+			Arrays.sort(sorted, 0, size);
+			int at = Math.min(size - 1, (int)Math.ceil(percentile * size) - 1);
+			return sorted[Math.max(at, 0)] / 1000000f;
+		}
+
+		/**
+		 * @return longest duration in millis ever added
+		 */
+		public float getMax () {
+			return max / 1000000f;
+		}
+
+		void write (JsonWriter json, String name) throws IOException {
+			json.object(name);
+			json.set("count", count);
+			json.set("p50", percentile(.5f));
+			json.set("p90", percentile(.9f));
+			json.set("p99", percentile(.99f));
+			json.set("max", getMax());
+			json.pop();
+		}
+
+		@Override public String toString () {
+			return "count " + count + ", p50 " + percentile(.5f) + "ms, p90 " + percentile(.9f) + "ms, p99 "
+				+ percentile(.99f) + "ms, max " + getMax() + "ms";
+		}
+	}
+}
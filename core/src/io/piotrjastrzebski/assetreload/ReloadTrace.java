@@ -0,0 +1,142 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Timestamps of a single reload, from file change to first frame rendered with new assets
+ *
+ * Travels with the {@link ChangeSet} it belongs to, stages can be marked on any thread as long as the change set is
+ * handed over properly. Stages that a reload didn't go through are left out.
+ */
+public class ReloadTrace {
+	public enum Stage {
+		/** first change was detected */
+		CHANGED,
+		/** changes stopped coming in and processing started */
+		QUEUED,
+		/** raw files are synced */
+		SYNCED,
+		/** everything is packed */
+		PACKED,
+		/** processed assets are published */
+		PUBLISHED,
+		/** published assets are decoded for loading */
+		PREPARED,
+		/** processing is done, changes are passed to the game */
+		PROCESSED,
+		/** game received processed changes */
+		RECEIVED,
+		/** new generations are loaded */
+		LOADED,
+		/** entities use new generations */
+		UPDATED,
+		/** first frame with new assets */
+		RENDERED
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final long[] stamps = new long[STAGES.length];
+	private int events;
+	private int dropped;
+
+	/**
+	 * Marks stage as reached now, if it was marked already the earlier time is kept
+	 */
+	public void mark (Stage stage) {
+		if (stamps[stage.ordinal()] == 0) stamps[stage.ordinal()] = TimeUtils.nanoTime();
+	}
+
+	public boolean reached (Stage stage) {
+		return stamps[stage.ordinal()] != 0;
+	}
+
+	/**
+	 * @return nanos between given stage and previous stage that was reached, -1 if it wasn't reached
+	 */
+	public long getDuration (Stage stage) {
+		long stamp = stamps[stage.ordinal()];
+		if (stamp == 0) return -1;
+		for (int i = stage.ordinal() - 1; i >= 0; i--) {
+			if (stamps[i] != 0) return stamp - stamps[i];
+		}
+		return 0;
+	}
+
+	/**
+	 * @return nanos between first and last stage that were reached
+	 */
+	public long getTotal () {
+		long first = 0;
+		long last = 0;
+		for (long stamp : stamps) {
+			if (stamp == 0) continue;
+			if (first == 0) first = stamp;
+			last = stamp;
+		}
+		return last - first;
+	}
+
+	/**
+	 * Change event that ended up in this reload, more than one means they were coalesced
+	 */
+	public void event () {
+		events++;
+	}
+
+	public int getEvents () {
+		return events;
+	}
+
+	/**
+	 * Changes were lost on the way, we had to treat everything as changed
+	 */
+	public void drop () {
+		dropped++;
+	}
+
+	public int getDropped () {
+		return dropped;
+	}
+
+	/**
+	 * Adds other trace to this one, earlier stamps win
+	 */
+	public void merge (ReloadTrace other) {
+		for (int i = 0; i < stamps.length; i++) {
+			long stamp = other.stamps[i];
+			if (stamp != 0 && (stamps[i] == 0 || stamp < stamps[i])) stamps[i] = stamp;
+		}
+		events += other.events;
+		dropped += other.dropped;
+	}
+
+	/**
+	 * Clears given stage and all after it, for processing that was cancelled and has to run again
+	 */
+	public void rewind (Stage stage) {
+		for (int i = stage.ordinal(); i < stamps.length; i++) {
+			stamps[i] = 0;
+		}
+	}
+
+	public void clear () {
+		for (int i = 0; i < stamps.length; i++) {
+			stamps[i] = 0;
+		}
+		events = 0;
+		dropped = 0;
+	}
+
+	@Override public String toString () {
+		StringBuilder sb = new StringBuilder("ReloadTrace{");
+		for (Stage stage : STAGES) {
+			long duration = getDuration(stage);
+			if (duration < 0) continue;
+			sb.append(stage).append(" +").append(duration / 1000000).append("ms, ");
+		}
+		sb.append("total ").append(getTotal() / 1000000).append("ms, events ").append(events);
+		if (dropped > 0) sb.append(", dropped ").append(dropped);
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,105 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Platform that doesn't process assets itself, desktop sends processed ones to it, see {@link DeltaReceiver}
+ *
+ * Received files are kept under the root and loaded before ones that shipped with the app. Listener is called on
+ * a single thread, for received changes as well as ones passed in here.
+ */
+public class RemotePlatform implements Platform {
+	private static final String TAG = RemotePlatform.class.getSimpleName();
+	private final int port;
+	private FileHandle root;
+	private Listener listener;
+	private DeltaReceiver receiver;
+	private ExecutorService notifier;
+
+	/**
+	 * @param root where received assets are kept, null for local storage root
+	 * @param port to receive assets on
+	 */
+	public RemotePlatform (FileHandle root, int port) {
+		this.root = root;
+		this.port = port;
+	}
+
+	@Override public void start (Listener listener, boolean watch) {
+		this.listener = listener;
+		notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (!watch) return;
+		try {
+			receiver = new DeltaReceiver(getRoot(), port, new Listener() {
+				@Override public void assetsProcessed (ChangeSet changes) {
+					deliver(changes);
+				}
+			});
+			receiver.start();
+		} catch (GdxRuntimeException ex) {
+			Gdx.app.error(TAG, "Assets won't be received", ex);
+		}
+	}
+
+	/**
+	 * Nothing to process, assets are loaded as they are
+	 */
+	@Override public void processAssets (ChangeSet changes) {
+		try {
+			deliver(changes).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			throw new GdxRuntimeException(ex.getCause());
+		}
+	}
+
+	@Override public void processAssetsAsync (ChangeSet changes) {
+		deliver(changes);
+	}
+
+	private Future<?> deliver (final ChangeSet changes) {
+		changes.getTrace().mark(ReloadTrace.Stage.PROCESSED);
+		return notifier.submit(new Runnable() {
+			@Override public void run () {
+				listener.assetsProcessed(changes);
+			}
+		});
+	}
+
+	@Override public FileHandleResolver getResolver () {
+		return new LocalFirstFileHandleResolver(getRoot());
+	}
+
+	/**
+	 * @return port assets are received on, -1 if they are not
+	 */
+	public int getPort () {
+		return receiver == null ? -1 : receiver.getPort();
+	}
+
+	private FileHandle getRoot () {
+		if (root == null) root = Gdx.files.local("");
+		return root;
+	}
+
+	@Override public void dispose () {
+		if (receiver != null) receiver.dispose();
+		if (notifier != null) notifier.shutdownNow();
+	}
+}
@@ -0,0 +1,66 @@
+package io.piotrjastrzebski.assetreload;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.SynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.TextureAtlasLoader;
+import com.badlogic.gdx.assets.loaders.TextureLoader;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Loads atlases that leave their pages to the {@link AssetManager}
+ *
+ * Same as {@link TextureAtlasLoader}, but {@link TextureAtlas#dispose()} doesn't dispose pages. Different generations
+ * of an atlas share pages that didn't change, regular atlas would dispose them when old generation is unloaded,
+ * while the new one still uses them. Pages are dependencies, so manager disposes them once nothing uses them.
+ *
+ * Atlas data parsed ahead of time is taken from {@link PreparedAssets}, if there is one.
+ */
+public class SharedPageAtlasLoader extends SynchronousAssetLoader<TextureAtlas, TextureAtlasLoader.TextureAtlasParameter> {
+	private final PreparedAssets prepared;
+	private TextureAtlas.TextureAtlasData data;
+
+	public SharedPageAtlasLoader (FileHandleResolver resolver, PreparedAssets prepared) {
+		super(resolver);
+		this.prepared = prepared;
+	}
+
+	@Override
+	public Array<AssetDescriptor> getDependencies (String fileName, FileHandle atlasFile,
+		TextureAtlasLoader.TextureAtlasParameter parameter) {
+		boolean flip = parameter != null && parameter.flip;
+		// prepared data is not flipped
+		data = flip ? null : prepared.take(atlasFile, TextureAtlas.TextureAtlasData.class);
+		if (data == null) data = new TextureAtlas.TextureAtlasData(atlasFile, atlasFile.parent(), flip);
+		Array<AssetDescriptor> dependencies = new Array<>();
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			TextureLoader.TextureParameter params = new TextureLoader.TextureParameter();
+			params.format = page.format;
+			params.genMipMaps = page.useMipMaps;
+			params.minFilter = page.minFilter;
+			params.magFilter = page.magFilter;
+			// by name, so it is resolved like any other asset
+			dependencies.add(new AssetDescriptor<>(page.textureFile.path().replace('\\', '/'), Texture.class, params));
+		}
+		return dependencies;
+	}
+
+	@Override
+	public TextureAtlas load (AssetManager manager, String fileName, FileHandle file,
+		TextureAtlasLoader.TextureAtlasParameter parameter) {
+		for (TextureAtlas.TextureAtlasData.Page page : data.getPages()) {
+			page.texture = manager.get(page.textureFile.path().replace('\\', '/'), Texture.class);
+		}
+		TextureAtlas atlas = new TextureAtlas(data) {
+			@Override public void dispose () {
+				// pages belong to the manager
+			}
+		};
+		data = null;
+		return atlas;
+	}
+}
@@ -0,0 +1,494 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.ParticleEffect;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import io.piotrjastrzebski.assetreload.BinaryAtlas;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+import io.piotrjastrzebski.assetreload.PreparedAssets;
+import io.piotrjastrzebski.assetreload.ReloadTrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Turns raw assets into assets the game loads
+ *
+ * Raw atlas directory is packed into the 'assets' atlas, each directory inside it with its own pack.json is packed
+ * into a separate atlas named after that directory. Atlases are packed in parallel, particles are synced at the same
+ * time. Nothing is published until all of it is done, so the game never sees a mix of old and new outputs.
+ *
+ * Each publish is a new version, atlas files of a version are written as name.vN.atlas, and name.vN.atlasb in
+ * {@link BinaryAtlas} format, pack/version.json is replaced last. Pages are named after their content and never
+ * change, so an atlas file always points at complete pages. Few old versions are kept, as the game may still be
+ * loading them.
+ *
+ * Once published, atlases and particle effects are parsed and new pages decoded, all of it is passed to the game with
+ * the changes, see {@link PreparedAssets}.
+ */
+class AssetPipeline {
+	private static final String TAG = AssetPipeline.class.getSimpleName();
+	private static final String ROOT_ATLAS = "assets";
+	private static final String VERSION = "version.json";
+	private static final Pattern VERSIONED = Pattern.compile(".+\\.v(\\d+)\\.atlas");
+	/** pages we wrote, named by content, anything else in output is not ours to delete */
+	private static final Pattern HASHED_PAGE = Pattern.compile(".+-[0-9a-f]{12}\\.(png|jpg)");
+	/** versions that are kept around, game could still be loading one of the older ones */
+	private static final int RETAINED_VERSIONS = 3;
+	/** hard link synced files instead of copying, see {@link FileSync#setLinks(boolean)} */
+	private static final boolean LINKS = Boolean.getBoolean("assetreload.links");
+
+	private final Path raw;
+	private final Path assets;
+	private final Path cache;
+	private final Path output;
+	private final Json json;
+	private final ForkJoinPool pool;
+	private final ObjectMap<String, IncrementalAtlasPacker> packers = new ObjectMap<>();
+	private final FileSync atlasSync;
+	private final FileSync particleSync;
+	private Version version;
+	private boolean prepare = true;
+
+	/**
+	 * @param raw    root of raw assets, with atlas and particles directories
+	 * @param assets root of processed assets
+	 * @param cache  directory for packer state
+	 */
+	AssetPipeline (Path raw, Path assets, Path cache) {
+		this(raw, assets, cache, Runtime.getRuntime().availableProcessors());
+	}
+
+	AssetPipeline (Path raw, Path assets, Path cache, int threads) {
+		this.raw = raw;
+		this.assets = assets;
+		this.cache = cache;
+		output = assets.resolve("pack");
+		json = new Json();
+		json.setOutputType(JsonWriter.OutputType.json);
+		pool = new ForkJoinPool(threads);
+		atlasSync = new FileSync(raw.resolve("atlas"), assets.resolve("raw/atlas"), cache.resolve("atlas-sync.json"));
+		particleSync = new FileSync(raw.resolve("particles"), assets.resolve("particles"), cache.resolve("particles-sync.json"));
+		atlasSync.setLinks(LINKS);
+		particleSync.setLinks(LINKS);
+	}
+
+	/**
+	 * @param prepare false if there is no game to pass prepared assets to, they are not decoded then
+	 */
+	public void setPrepare (boolean prepare) {
+		this.prepare = prepare;
+	}
+
+	public void process (ChangeSet changes) throws IOException {
+		process(changes, Cancellation.NONE);
+	}
+
+	/**
+	 * Processes given changes in stages, sync, pack and publish, stale processing is stopped before the next one
+	 *
+	 * @throws Cancellation.CancelledException if cancelled before anything was published, changes need to be processed
+	 * again
+	 */
+	public void process (final ChangeSet changes, final Cancellation cancellation) throws IOException {
+		cancellation.check();
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		final Array<IncrementalAtlasPacker> packing = new Array<>();
+		if (changes.contains(ChangeSet.Category.ATLAS)) {
+			Path rawAtlas = raw.resolve("atlas");
+			if (!Files.exists(rawAtlas)) {
+				Gdx.app.error(TAG, "raw-assets doesn't exists! " + rawAtlas);
+				return;
+			}
+			tasks.add(new Callable<Boolean>() {
+				@Override public Boolean call () throws Exception {
+					return syncAndPack(changes, cancellation, packing);
+				}
+			});
+		}
+		if (changes.contains(ChangeSet.Category.PARTICLE)) {
+			tasks.add(new Callable<Boolean>() {
+				@Override public Boolean call () throws Exception {
+					particleSync.sync();
+					return false;
+				}
+			});
+		}
+		if (tasks.isEmpty()) {
+			publish(packing, false, changes);
+			return;
+		}
+
+		long start = System.nanoTime();
+		List<Future<Boolean>> results = pool.invokeAll(tasks);
+		IOException failed = null;
+		boolean packed = false;
+		for (Future<Boolean> result : results) {
+			try {
+				packed |= result.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while processing", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = cause(ex);
+				if (cause instanceof Cancellation.CancelledException) {
+					failed = (Cancellation.CancelledException)cause;
+				} else if (failed == null) {
+					failed = new IOException("Processing failed", cause);
+				}
+			}
+		}
+		// if anything failed we dont publish anything, next run will pick up where we left off
+		if (failed != null) throw failed;
+		changes.getTrace().mark(ReloadTrace.Stage.PACKED);
+		// last chance, once published the game has to get it
+		cancellation.check();
+		publish(packing, packed, changes);
+		if (prepare) prepare(packing, changes);
+		Gdx.app.log(TAG, "Processed " + tasks.size() + " tasks on " + pool.getParallelism() + " threads in "
+			+ (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	/**
+	 * Publishes new version if anything was packed, or if current one is broken. Changes are updated with files
+	 * of the current version
+	 */
+	private void publish (Array<IncrementalAtlasPacker> packing, boolean packed, ChangeSet changes) throws IOException {
+		Version current = loadVersion();
+		String prefix = assets.relativize(output).toString().replace('\\', '/') + "/";
+		if (packing.size > 0) {
+			for (IncrementalAtlasPacker packer : packing) {
+				String atlas = prefix + packer.getName() + ".atlas";
+				// versions published before binary atlases were a thing don't have them
+				if (!current.files.containsKey(atlas) || !current.files.containsKey(BinaryAtlas.binaryFile(atlas))) packed = true;
+			}
+			for (String file : current.files.values()) {
+				if (!Files.exists(assets.resolve(file))) packed = true;
+			}
+		}
+		if (packed) {
+			Version next = new Version();
+			next.version = current.version + 1;
+			for (IncrementalAtlasPacker packer : packing) {
+				String atlas = prefix + packer.getName() + ".atlas";
+				String file = packer.publish(next.version);
+				next.files.put(atlas, prefix + file);
+				next.files.put(BinaryAtlas.binaryFile(atlas), prefix + BinaryAtlas.binaryFile(file));
+				IncrementalAtlasPacker.Result result = packer.getLastResult();
+				// with everything processed any region could be different, we don't report just some of them
+				if (result != null && !changes.isEverything()) changes.addRegions(atlas, result.regions);
+			}
+			// this is the switch, before it everything points at old version, after at the new one
+			AtomicFiles.write(output.resolve(VERSION), json.toJson(next, Version.class).getBytes(UTF_8));
+			version = next;
+			Gdx.app.log(TAG, "Published version " + next.version + " " + next.files);
+			collectGarbage(next.version);
+			current = next;
+		}
+		changes.getTrace().mark(ReloadTrace.Stage.PUBLISHED);
+		changes.setVersion(current.version);
+		changes.getFiles().putAll(current.files);
+	}
+
+	/**
+	 * Parses published atlases and particle effects and decodes new pages, so the game is left with texture upload.
+	 * Pages that were not written in this run are loaded already, unless the game loads everything
+	 */
+	private void prepare (Array<IncrementalAtlasPacker> packing, final ChangeSet changes) {
+		final PreparedAssets prepared = changes.getPrepared();
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		final String prefix = assets.relativize(output).toString().replace('\\', '/') + "/";
+		for (IncrementalAtlasPacker packer : packing) {
+			String name = prefix + packer.getName() + ".atlas";
+			String file = changes.getFiles().get(BinaryAtlas.binaryFile(name));
+			if (file == null || !Files.exists(assets.resolve(file))) file = changes.getFiles().get(name, name);
+			Path atlas = assets.resolve(file);
+			if (!Files.exists(atlas)) continue;
+			// game looks pages up by path relative to assets root, so that is what they need to have
+			FileHandle pages = new FileHandle(file).parent();
+			Array<TextureAtlas.TextureAtlasData.Page> atlasPages;
+			if (file.endsWith(BinaryAtlas.SUFFIX)) {
+				BinaryAtlas data = new BinaryAtlas(new FileHandle(atlas.toFile()), pages);
+				prepared.put(file, data);
+				atlasPages = data.getPages();
+			} else {
+				TextureAtlas.TextureAtlasData data = new TextureAtlas.TextureAtlasData(new FileHandle(atlas.toFile()), pages, false);
+				prepared.put(file, data);
+				atlasPages = data.getPages();
+			}
+			final IncrementalAtlasPacker.Result result = packer.getLastResult();
+			if (!changes.isEverything() && result != null && result.patched) {
+				// game most likely has the pages loaded, it needs only the pixels that changed
+				final String atlasName = name;
+				tasks.add(new Callable<Boolean>() {
+					@Override public Boolean call () throws Exception {
+						Array<ChangeSet.Patch> patches = patches(prefix, result.patches);
+						synchronized (changes) {
+							for (ChangeSet.Patch patch : patches) {
+								changes.addPatch(atlasName, patch);
+							}
+						}
+						return true;
+					}
+				});
+			}
+			for (TextureAtlas.TextureAtlasData.Page page : atlasPages) {
+				if (!changes.isEverything() && (result == null || result.patched
+					|| !result.writtenPages.contains(page.textureFile.name(), false))) {
+					continue;
+				}
+				final String path = page.textureFile.path();
+				tasks.add(new Callable<Boolean>() {
+					@Override public Boolean call () throws Exception {
+						prepared.put(path, new Pixmap(new FileHandle(assets.resolve(path).toFile())));
+						return true;
+					}
+				});
+			}
+		}
+		if (changes.contains(ChangeSet.Category.PARTICLE)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(assets.resolve("particles"), "*.p")) {
+				for (final Path file : stream) {
+					tasks.add(new Callable<Boolean>() {
+						@Override public Boolean call () throws Exception {
+							ParticleEffect effect = new ParticleEffect();
+							effect.loadEmitters(new FileHandle(file.toFile()));
+							prepared.put(assets.relativize(file).toString().replace('\\', '/'), effect);
+							return true;
+						}
+					});
+				}
+			} catch (IOException ex) {
+				Gdx.app.error(TAG, "Failed to list particles", ex);
+			}
+		}
+		long start = System.nanoTime();
+		for (Future<Boolean> result : pool.invokeAll(tasks)) {
+			try {
+				result.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException ex) {
+				// not a big deal, game will load it from the file
+				Gdx.app.error(TAG, "Failed to prepare asset", ex.getCause());
+			}
+		}
+		changes.getTrace().mark(ReloadTrace.Stage.PREPARED);
+		Gdx.app.log(TAG, "Prepared " + prepared.size() + " assets in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	/**
+	 * Cuts patched rectangles out of their new pages, all of them or none, so the game either patches every one or
+	 * loads the atlas
+	 */
+	private Array<ChangeSet.Patch> patches (String prefix, Array<IncrementalAtlasPacker.PagePatch> pagePatches) {
+		Array<ChangeSet.Patch> patches = new Array<>();
+		ObjectMap<String, Pixmap> pages = new ObjectMap<>();
+		try {
+			for (IncrementalAtlasPacker.PagePatch pagePatch : pagePatches) {
+				Pixmap page = pages.get(pagePatch.file);
+				if (page == null) {
+					page = new Pixmap(new FileHandle(output.resolve(pagePatch.file).toFile()));
+					pages.put(pagePatch.file, page);
+				}
+				// texture.draw needs the format texture was loaded with, packer writes pages as RGBA8888
+				if (page.getFormat() != Pixmap.Format.RGBA8888) throw new IllegalStateException("Unexpected format of " + pagePatch.file);
+				ChangeSet.Patch patch = new ChangeSet.Patch();
+				patch.page = prefix + pagePatch.page;
+				patch.file = prefix + pagePatch.file;
+				patch.x = pagePatch.x;
+				patch.y = pagePatch.y;
+				patch.pixmap = crop(page, pagePatch.x, pagePatch.y, pagePatch.width, pagePatch.height);
+				patches.add(patch);
+			}
+		} catch (RuntimeException ex) {
+			for (ChangeSet.Patch patch : patches) {
+				patch.dispose();
+			}
+			throw ex;
+		} finally {
+			for (Pixmap page : pages.values()) {
+				page.dispose();
+			}
+		}
+		return patches;
+	}
+
+	/**
+	 * @return copy of given rectangle of RGBA8888 pixmap
+	 */
+	private static Pixmap crop (Pixmap source, int x, int y, int width, int height) {
+		Pixmap pixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+		ByteBuffer from = source.getPixels();
+		ByteBuffer to = pixmap.getPixels();
+		int stride = source.getWidth() * 4;
+		for (int row = 0; row < height; row++) {
+			int start = (y + row) * stride + x * 4;
+			from.limit(start + width * 4);
+			from.position(start);
+			to.put(from);
+		}
+		from.clear();
+		to.clear();
+		return pixmap;
+	}
+
+	private Version loadVersion () {
+		if (version != null) return version;
+		Path file = output.resolve(VERSION);
+		version = new Version();
+		if (Files.exists(file)) {
+			try {
+				version = json.fromJson(Version.class, new String(Files.readAllBytes(file), UTF_8));
+			} catch (Exception ex) {
+				Gdx.app.error(TAG, "Broken " + file + ", starting over", ex);
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Removes versions older than we retain and pages that none of the remaining versions use
+	 */
+	private void collectGarbage (int latest) throws IOException {
+		Array<Path> atlases = new Array<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(output, "*.atlas")) {
+			for (Path file : stream) {
+				Matcher matcher = VERSIONED.matcher(file.getFileName().toString());
+				if (matcher.matches() && Integer.parseInt(matcher.group(1)) <= latest - RETAINED_VERSIONS) {
+					Files.delete(file);
+					Files.deleteIfExists(file.resolveSibling(BinaryAtlas.binaryFile(file.getFileName().toString())));
+				} else {
+					atlases.add(file);
+				}
+			}
+		}
+		ObjectSet<String> used = new ObjectSet<>();
+		for (Path atlas : atlases) {
+			for (IncrementalAtlasPacker.Page page : IncrementalAtlasPacker.parsePages(new String(Files.readAllBytes(atlas), UTF_8))) {
+				used.add(page.file);
+			}
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(output, "*.{png,jpg}")) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+				if (HASHED_PAGE.matcher(name).matches() && !used.contains(name)) {
+					Gdx.app.log(TAG, "Removing unused page " + file.getFileName());
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Syncs raw atlases and packs each of them in parallel, particles are synced at the same time by another task.
+	 * Atlases are found in synced tree and packed from it, so packing waits for all of it to be synced
+	 *
+	 * @param packing filled with packers of all atlases
+	 * @return true if any atlas was packed
+	 */
+	private boolean syncAndPack (ChangeSet changes, final Cancellation cancellation,
+		Array<IncrementalAtlasPacker> packing) throws Exception {
+		atlasSync.sync();
+		changes.getTrace().mark(ReloadTrace.Stage.SYNCED);
+		cancellation.check();
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		for (final IncrementalAtlasPacker packer : findAtlases(assets.resolve("raw/atlas"))) {
+			packing.add(packer);
+			tasks.add(new Callable<Boolean>() {
+				@Override public Boolean call () throws Exception {
+					return packer.pack(cancellation).changed;
+				}
+			});
+		}
+		boolean packed = false;
+		Exception failed = null;
+		// all of them run to the end, same as top level tasks, so nothing is left writing pages once we return
+		for (Future<Boolean> result : pool.invokeAll(tasks)) {
+			try {
+				packed |= result.get();
+			} catch (ExecutionException ex) {
+				Throwable cause = cause(ex);
+				if (failed == null || cause instanceof Cancellation.CancelledException) {
+					failed = cause instanceof Exception ? (Exception)cause : ex;
+				}
+			}
+		}
+		if (failed != null) throw failed;
+		return packed;
+	}
+
+	/**
+	 * @return exception thrown by the task, pool wraps checked ones in runtime exceptions
+	 */
+	private static Throwable cause (ExecutionException ex) {
+		Throwable cause = ex.getCause();
+		while (cause instanceof RuntimeException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
+	/**
+	 * @return packer for each atlas in given directory, each one excludes directories of atlases inside it
+	 */
+	private Array<IncrementalAtlasPacker> findAtlases (final Path atlas) throws IOException {
+		final Array<Path> roots = new Array<>();
+		roots.add(atlas);
+		Files.walkFileTree(atlas, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(atlas) && Files.exists(dir.resolve("pack.json"))) roots.add(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Array<IncrementalAtlasPacker> found = new Array<>();
+		for (Path root : roots) {
+			String name = root.equals(atlas) ? ROOT_ATLAS : atlas.relativize(root).toString().replace('\\', '/').replace('/', '-');
+			IncrementalAtlasPacker packer = packers.get(name);
+			if (packer == null) {
+				packer = new IncrementalAtlasPacker(root, output, name, cache);
+				packers.put(name, packer);
+			}
+			// atlases can come and go, so we set up excludes each time
+			packer.clearExcludes();
+			for (int i = 0; i < roots.size; i++) {
+				Path other = roots.get(i);
+				if (other != root && other.startsWith(root)) {
+					packer.exclude(root.relativize(other).toString().replace('\\', '/'));
+				}
+			}
+			found.add(packer);
+		}
+		return found;
+	}
+
+	public void dispose () {
+		pool.shutdownNow();
+	}
+
+	static class Version {
+		int version;
+		/** logical atlas names to files of this version, relative to assets root */
+		ObjectMap<String, String> files = new ObjectMap<>();
+	}
+}
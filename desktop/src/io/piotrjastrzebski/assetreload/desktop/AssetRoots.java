@@ -0,0 +1,60 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Where raw assets are, where processed assets go and where processing keeps its state
+ */
+class AssetRoots {
+	final Path raw;
+	final Path assets;
+	final Path cache;
+
+	AssetRoots (Path raw, Path assets, Path cache) {
+		this.raw = raw.toAbsolutePath().normalize();
+		this.assets = assets.toAbsolutePath().normalize();
+		this.cache = cache.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Cache goes into build/asset-cache next to raw assets, same as in the project
+	 */
+	AssetRoots (Path raw, Path assets) {
+		this(raw, assets, defaultCache(raw));
+	}
+
+	private static Path defaultCache (Path raw) {
+		Path parent = raw.toAbsolutePath().normalize().getParent();
+		return (parent == null ? raw : parent).resolve("build/asset-cache");
+	}
+
+	/**
+	 * Roots given by assetreload.raw and assetreload.assets system properties, cache by optional assetreload.cache.
+	 * Without them we look for a project with raw-assets and android/assets, in given directory and its parents
+	 *
+	 * @return null if there are no properties and no project
+	 */
+	static AssetRoots find (Path dir) {
+		String raw = System.getProperty("assetreload.raw");
+		String assets = System.getProperty("assetreload.assets");
+		if (raw != null && assets != null) {
+			String cache = System.getProperty("assetreload.cache");
+			if (cache == null) return new AssetRoots(Paths.get(raw), Paths.get(assets));
+			return new AssetRoots(Paths.get(raw), Paths.get(assets), Paths.get(cache));
+		}
+		for (Path root = dir.toAbsolutePath().normalize(); root != null; root = root.getParent()) {
+			Path projectRaw = root.resolve("raw-assets");
+			Path projectAssets = root.resolve("android/assets");
+			if (Files.isDirectory(projectRaw) && Files.isDirectory(projectAssets)) {
+				return new AssetRoots(projectRaw, projectAssets, root.resolve("build/asset-cache"));
+			}
+		}
+		return null;
+	}
+
+	@Override public String toString () {
+		return raw + " -> " + assets;
+	}
+}
@@ -0,0 +1,227 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.utils.Array;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Processes assets without a game or a display, on the headless backend
+ *
+ * <pre>
+ * AssetServer [--watch] [--cache dir] [--device host:port] raw-assets assets
+ *   [[--cache dir] [--device host:port] raw-assets assets ...]
+ * </pre>
+ * Each pair of roots is processed by its own {@link AssetPipeline}, all of them in parallel, threads are split
+ * between them. Cache is build/asset-cache next to raw assets, unless given before the pair. With a device before
+ * the pair, processed assets are sent to it after each run, see {@link DeltaSender}.
+ *
+ * By default everything is processed once, exit code is 0 if all of it was processed, 1 if anything failed and 2 for
+ * bad arguments. With --watch roots are processed and then watched for changes, same as when the game runs, until
+ * the process is stopped.
+ */
+public class AssetServer {
+	private static final String TAG = AssetServer.class.getSimpleName();
+	private static final long QUIET_PERIOD = Long.getLong("assetreload.quietPeriod", 250);
+
+	private final Array<Root> roots = new Array<>();
+
+	public static void main (String[] args) {
+		boolean watch = false;
+		Path cache = null;
+		String device = null;
+		Array<AssetRoots> roots = new Array<>();
+		Array<String> devices = new Array<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--watch")) {
+				watch = true;
+			} else if (arg.equals("--cache") && i + 1 < args.length) {
+				cache = Paths.get(args[++i]);
+			} else if (arg.equals("--device") && i + 1 < args.length) {
+				device = args[++i];
+			} else if (!arg.startsWith("--") && i + 1 < args.length) {
+				Path raw = Paths.get(arg);
+				Path assets = Paths.get(args[++i]);
+				roots.add(cache == null ? new AssetRoots(raw, assets) : new AssetRoots(raw, assets, cache));
+				devices.add(device);
+				cache = null;
+				device = null;
+			} else {
+				usage("Unexpected argument " + arg);
+				return;
+			}
+		}
+		if (roots.size == 0) {
+			usage("No roots to process");
+			return;
+		}
+		for (AssetRoots root : roots) {
+			if (!Files.isDirectory(root.raw)) {
+				usage("Raw assets not found " + root.raw);
+				return;
+			}
+		}
+
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		// nothing to render, loop is there only for runnables
+		config.renderInterval = 1;
+		new HeadlessApplication(new ApplicationAdapter() {}, config);
+
+		final AssetServer server = new AssetServer(roots, devices);
+		if (watch) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override public void run () {
+					server.dispose();
+				}
+			}, TAG + "-shutdown"));
+			server.watch();
+			try {
+				// watchers and schedulers do the work from now on
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException ignored) {}
+			return;
+		}
+		boolean processed = server.process();
+		server.dispose();
+		Gdx.app.exit();
+		System.exit(processed ? 0 : 1);
+	}
+
+	private static void usage (String error) {
+		System.err.println(error);
+		System.err.println("Usage: AssetServer [--watch] [--cache dir] [--device host:port] raw-assets assets "
+			+ "[[--cache dir] [--device host:port] raw-assets assets ...]");
+		System.exit(2);
+	}
+
+	/**
+	 * @param devices for each of roots, address of a device to send processed assets to or null
+	 */
+	AssetServer (Array<AssetRoots> roots, Array<String> devices) {
+		// pipelines run at the same time, they get their share of the cpu
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / roots.size);
+		for (int i = 0; i < roots.size; i++) {
+			AssetRoots assetRoots = roots.get(i);
+			AssetPipeline pipeline = new AssetPipeline(assetRoots.raw, assetRoots.assets, assetRoots.cache, threads);
+			// nothing here loads them, device loads files it is sent
+			pipeline.setPrepare(false);
+			String device = devices.get(i);
+			this.roots.add(new Root(assetRoots, pipeline, device == null ? null : new DeltaSender(device, assetRoots.assets)));
+		}
+	}
+
+	/**
+	 * Processes everything in all roots, in parallel
+	 *
+	 * @return true if all roots were processed
+	 */
+	boolean process () {
+		ExecutorService executor = Executors.newFixedThreadPool(roots.size);
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (final Root root : roots) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override public Void call () throws IOException {
+						root.process(ChangeSet.everything(), Cancellation.NONE);
+						return null;
+					}
+				}));
+			}
+			boolean processed = true;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException ex) {
+					Gdx.app.error(TAG, "Processing failed " + roots.get(i).roots, ex.getCause());
+					processed = false;
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return processed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Processes everything in all roots and then whatever changes in them
+	 */
+	void watch () {
+		for (Root root : roots) {
+			root.watch();
+		}
+	}
+
+	synchronized void dispose () {
+		for (Root root : roots) {
+			root.dispose();
+		}
+		roots.clear();
+	}
+
+	private static class Root {
+		final AssetRoots roots;
+		final AssetPipeline pipeline;
+		final DeltaSender sender;
+		ChangeScheduler scheduler;
+		Thread watcher;
+
+		Root (AssetRoots roots, AssetPipeline pipeline, DeltaSender sender) {
+			this.roots = roots;
+			this.pipeline = pipeline;
+			this.sender = sender;
+		}
+
+		void process (ChangeSet changes, Cancellation cancellation) throws IOException {
+			Gdx.app.log(TAG, "Processing " + roots + " " + changes);
+			pipeline.process(changes, cancellation);
+			Gdx.app.log(TAG, "Processed " + roots + " version " + changes.getVersion() + " " + changes.getTrace());
+			if (sender != null) sender.send(changes);
+			changes.clear();
+		}
+
+		void watch () {
+			scheduler = new ChangeScheduler(QUIET_PERIOD, new ChangeScheduler.Processor() {
+				@Override public void process (ChangeSet changes, Cancellation cancellation)
+					throws Cancellation.CancelledException {
+					try {
+						Root.this.process(changes, cancellation);
+					} catch (Cancellation.CancelledException ex) {
+						throw ex;
+					} catch (IOException ex) {
+						Gdx.app.error(TAG, "Processing failed " + roots, ex);
+					}
+				}
+			});
+			watcher = new Thread(new RecursiveWatcher(roots.raw, new RecursiveWatcher.Listener() {
+				@Override public void changed (ChangeSet changes) {
+					scheduler.submit(changes);
+				}
+			}), "RecursiveWatcher-" + roots.raw.getFileName());
+			watcher.setDaemon(true);
+			watcher.start();
+			// whatever changed while we were not watching
+			scheduler.submit(ChangeSet.everything());
+		}
+
+		void dispose () {
+			if (watcher != null) watcher.interrupt();
+			if (scheduler != null) scheduler.dispose();
+			if (sender != null) sender.close();
+			pipeline.dispose();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Writes files so that readers see either old or new contents, never something in between
+ *
+ * Data goes to a staging directory next to the target, is flushed to disk and then moved in place.
+ */
+class AtomicFiles {
+	static final String STAGING = ".staging";
+
+	private AtomicFiles () {}
+
+	static void write (Path target, byte[] bytes) throws IOException {
+		Path staging = target.resolveSibling(STAGING);
+		Files.createDirectories(staging);
+		Path tmp = Files.createTempFile(staging, target.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			try {
+				Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				// best we can do, staging is next to target so this should not happen
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
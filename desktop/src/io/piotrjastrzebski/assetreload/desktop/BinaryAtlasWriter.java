@@ -0,0 +1,86 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.utils.Array;
+import io.piotrjastrzebski.assetreload.BinaryAtlas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Encodes text atlases in {@link BinaryAtlas} format
+ *
+ * Text atlas is parsed by {@link TextureAtlas.TextureAtlasData}, so both formats load the same regions
+ */
+class BinaryAtlasWriter {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private BinaryAtlasWriter () {}
+
+	/**
+	 * @param atlas text atlas
+	 * @return contents of binary atlas with the same pages and regions
+	 */
+	static byte[] encode (Path atlas) throws IOException {
+		FileHandle file = new FileHandle(atlas.toFile());
+		TextureAtlas.TextureAtlasData data = new TextureAtlas.TextureAtlasData(file, file.parent(), false);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(BinaryAtlas.MAGIC);
+		out.writeInt(BinaryAtlas.VERSION);
+		Array<TextureAtlas.TextureAtlasData.Page> pages = data.getPages();
+		out.writeInt(pages.size);
+		for (TextureAtlas.TextureAtlasData.Page page : pages) {
+			writeString(out, page.textureFile.name());
+			out.writeFloat(page.width);
+			out.writeFloat(page.height);
+			writeString(out, page.format.name());
+			writeString(out, page.minFilter.name());
+			writeString(out, page.magFilter.name());
+			writeString(out, page.uWrap.name());
+			writeString(out, page.vWrap.name());
+			out.writeByte(page.useMipMaps ? 1 : 0);
+		}
+		Array<TextureAtlas.TextureAtlasData.Region> regions = data.getRegions();
+		out.writeInt(regions.size);
+		for (TextureAtlas.TextureAtlasData.Region region : regions) {
+			out.writeInt(pages.indexOf(region.page, true));
+			writeString(out, region.name);
+			out.writeInt(region.index);
+			out.writeInt(region.left);
+			out.writeInt(region.top);
+			out.writeInt(region.width);
+			out.writeInt(region.height);
+			out.writeFloat(region.offsetX);
+			out.writeFloat(region.offsetY);
+			out.writeInt(region.originalWidth);
+			out.writeInt(region.originalHeight);
+			int flags = 0;
+			if (region.rotate) flags |= BinaryAtlas.FLAG_ROTATE;
+			if (region.splits != null) flags |= BinaryAtlas.FLAG_SPLITS;
+			if (region.pads != null) flags |= BinaryAtlas.FLAG_PADS;
+			out.writeByte(flags);
+			if (region.splits != null) writeInts(out, region.splits);
+			if (region.pads != null) writeInts(out, region.pads);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeInts (DataOutputStream out, int[] values) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		if (bytes.length > 0xFFFF) throw new IOException("String too long for binary atlas: " + value);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,49 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells processing that newer changes came in and its result would be stale
+ *
+ * Work is split in stages, each one calls {@link #check()} before it starts, so stale processing stops at the next
+ * stage boundary. Anything that was published is never cancelled, it has to reach the game.
+ */
+class Cancellation {
+	/** for processing that runs to the end no matter what */
+	static final Cancellation NONE = new Cancellation(new AtomicInteger(), 0);
+
+	private final AtomicInteger latest;
+	private final int generation;
+
+	/**
+	 * @param latest     generation of newest changes, bumped when they come in
+	 * @param generation generation of changes being processed
+	 */
+	Cancellation (AtomicInteger latest, int generation) {
+		this.latest = latest;
+		this.generation = generation;
+	}
+
+	boolean isCancelled () {
+		return latest.get() != generation;
+	}
+
+	/**
+	 * @throws CancelledException if newer changes came in
+	 */
+	void check () throws CancelledException {
+		if (isCancelled()) throw new CancelledException();
+	}
+
+	/**
+	 * Processing was stopped as its changes became stale
+	 */
+	static class CancelledException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CancelledException () {
+			super("Processing cancelled, newer changes came in");
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+import io.piotrjastrzebski.assetreload.ReloadTrace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects asset changes and runs processing once they stop coming in
+ *
+ * Changes are merged into a single pending batch, that batch is processed after nothing new showed up for the quiet
+ * period. Changes that come in while a batch is processed go into the next one, so nothing is lost and a burst of
+ * events from a single save results in a single run.
+ *
+ * New changes also cancel the batch that is processed, it stops at the next stage boundary and is merged back into
+ * the pending one, so we don't finish a pack that is out of date before we start the one that isn't.
+ */
+class ChangeScheduler {
+	private static final String TAG = ChangeScheduler.class.getSimpleName();
+
+	private final Object lock = new Object();
+	private final long quietNanos;
+	private final Processor processor;
+	private final Thread worker;
+	/** bumped with every submit, processing of older generation is stale */
+	private final AtomicInteger generation = new AtomicInteger();
+	private ChangeSet pending;
+	private long lastChange;
+	private boolean running = true;
+
+	/**
+	 * @param quietMillis how long to wait after last change before processing
+	 */
+	ChangeScheduler (long quietMillis, Processor processor) {
+		this.quietNanos = quietMillis * 1000000L;
+		this.processor = processor;
+		worker = new Thread(new Runnable() {
+			@Override public void run () {
+				loop();
+			}
+		}, TAG);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	public void submit (ChangeSet changes) {
+		synchronized (lock) {
+			changes.getTrace().mark(ReloadTrace.Stage.CHANGED);
+			changes.getTrace().event();
+			if (pending == null) pending = new ChangeSet();
+			pending.merge(changes);
+			generation.incrementAndGet();
+			lastChange = System.nanoTime();
+			lock.notifyAll();
+		}
+	}
+
+	private void loop () {
+		try {
+			while (true) {
+				ChangeSet changes;
+				Cancellation cancellation;
+				synchronized (lock) {
+					while (running && pending == null) {
+						lock.wait();
+					}
+					if (!running) return;
+					long wait;
+					while (running && (wait = lastChange + quietNanos - System.nanoTime()) > 0) {
+						lock.wait(wait / 1000000L, (int)(wait % 1000000L));
+					}
+					if (!running) return;
+					changes = pending;
+					pending = null;
+					cancellation = new Cancellation(generation, generation.get());
+				}
+				changes.getTrace().mark(ReloadTrace.Stage.QUEUED);
+				int events = changes.getTrace().getEvents();
+				if (events > 1) {
+					Gdx.app.log(TAG, "Merged " + events + " changes into one batch");
+				}
+				try {
+					processor.process(changes, cancellation);
+				} catch (Cancellation.CancelledException ex) {
+					Gdx.app.log(TAG, "Cancelled stale processing of " + changes);
+					// it has to run again, with newer changes
+					changes.getTrace().rewind(ReloadTrace.Stage.QUEUED);
+					synchronized (lock) {
+						if (pending != null) changes.merge(pending);
+						pending = changes;
+					}
+				} catch (Exception ex) {
+					Gdx.app.error(TAG, "Processing failed", ex);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Gdx.app.log(TAG, "Scheduler stopped");
+		}
+	}
+
+	public void dispose () {
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+		worker.interrupt();
+	}
+
+	interface Processor {
+		/**
+		 * Called on scheduler thread
+		 *
+		 * @throws Cancellation.CancelledException if processing stopped as newer changes came in, changes are
+		 * processed again with them
+		 */
+		void process (ChangeSet changes, Cancellation cancellation) throws Cancellation.CancelledException;
+	}
+}
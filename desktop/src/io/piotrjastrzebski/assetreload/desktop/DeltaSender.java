@@ -0,0 +1,215 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+import io.piotrjastrzebski.assetreload.DeltaProtocol;
+import io.piotrjastrzebski.assetreload.DeltaReceiver;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sends processed assets to a device running {@link DeltaReceiver}, only files that are different from what it has
+ *
+ * Files the game loads, pack and particles in assets root, are compared by hash with ones the device reported when
+ * we connected and ones it acknowledged since. Hashes are computed again only for files that were touched. Connects
+ * on first send and again after connection is lost, device that is not there is not an error, we just skip it.
+ */
+class DeltaSender {
+	private static final String TAG = DeltaSender.class.getSimpleName();
+	private static final String[] ROOTS = {"pack", "particles"};
+	private static final int CONNECT_TIMEOUT = 2000;
+
+	private final String host;
+	private final int port;
+	private final Path assets;
+	/** hashes of local files, with size and modification time they are for */
+	private final ObjectMap<String, Stamp> stamps = new ObjectMap<>();
+	private final ExecutorService executor;
+	/** changes waiting for sender thread, guarded by executor */
+	private ChangeSet queued;
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+	/** hashes of files on device */
+	private ObjectMap<String, String> device;
+
+	/**
+	 * @param address host:port or port on localhost, adb forward makes device port a local one
+	 */
+	DeltaSender (String address, Path assets) {
+		int colon = address.lastIndexOf(':');
+		host = colon == -1 ? "localhost" : address.substring(0, colon);
+		port = Integer.parseInt(address.substring(colon + 1));
+		this.assets = assets;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override public Thread newThread (Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sends given changes on sender thread, so a slow or missing device doesn't hold up whoever processed them.
+	 * Changes that come in while a send is in progress are merged and sent together after it
+	 */
+	void sendAsync (ChangeSet changes) {
+		// processing thread keeps the original, we need only what goes over the wire
+		ChangeSet copy = changes.copy();
+		synchronized (executor) {
+			if (queued != null) {
+				queued.merge(copy);
+				return;
+			}
+			queued = copy;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override public void run () {
+					ChangeSet changes;
+					synchronized (executor) {
+						changes = queued;
+						queued = null;
+					}
+					send(changes);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			// closed, nothing to send to
+		}
+	}
+
+	/**
+	 * Sends files that changed since last send, with given changes for the device to reload
+	 *
+	 * @return true if device got them
+	 */
+	synchronized boolean send (ChangeSet changes) {
+		// connection we had could be gone, device restarted for example, give a new one a chance
+		if (socket != null && send(changes, false)) return true;
+		return send(changes, true);
+	}
+
+	private boolean send (ChangeSet changes, boolean report) {
+		long start = System.nanoTime();
+		try {
+			connect();
+			Array<DeltaProtocol.FileDelta> files = diff();
+			DeltaProtocol.writeDelta(out, changes, files);
+			DeltaProtocol.readAck(in);
+			int bytes = 0;
+			for (DeltaProtocol.FileDelta file : files) {
+				if (file.data == null) {
+					device.remove(file.path);
+				} else {
+					device.put(file.path, file.hash);
+					bytes += file.data.length;
+				}
+			}
+			Gdx.app.log(TAG, "Sent version " + changes.getVersion() + " to " + host + ":" + port + ", " + files.size
+				+ " files, " + bytes / 1024 + "kb in " + (System.nanoTime() - start) / 1000000 + "ms");
+			return true;
+		} catch (IOException ex) {
+			if (report) Gdx.app.error(TAG, "Device at " + host + ":" + port + " not reachable, " + ex.getMessage());
+			disconnect();
+			return false;
+		}
+	}
+
+	private void connect () throws IOException {
+		if (socket != null) return;
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+			device = DeltaProtocol.readHello(in);
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+		this.socket = socket;
+		Gdx.app.log(TAG, "Connected to " + host + ":" + port + ", device has " + device.size + " files");
+	}
+
+	/**
+	 * @return files that are different on device, deleted ones without data
+	 */
+	private Array<DeltaProtocol.FileDelta> diff () throws IOException {
+		final Array<DeltaProtocol.FileDelta> files = new Array<>();
+		final ObjectSet<String> found = new ObjectSet<>();
+		for (String root : ROOTS) {
+			Path dir = assets.resolve(root);
+			if (!Files.isDirectory(dir)) continue;
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) {
+					// half written files
+					return dir.getFileName().toString().equals(AtomicFiles.STAGING) ? FileVisitResult.SKIP_SUBTREE
+						: FileVisitResult.CONTINUE;
+				}
+
+				@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+					String path = assets.relativize(file).toString().replace('\\', '/');
+					found.add(path);
+					String hash = hash(path, file, attrs);
+					if (!hash.equals(device.get(path))) {
+						files.add(new DeltaProtocol.FileDelta(path, hash, Files.readAllBytes(file)));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		for (String path : device.keys()) {
+			if (!found.contains(path)) files.add(new DeltaProtocol.FileDelta(path, "", null));
+		}
+		return files;
+	}
+
+	private String hash (String path, Path file, BasicFileAttributes attrs) throws IOException {
+		long modified = attrs.lastModifiedTime().toMillis();
+		Stamp stamp = stamps.get(path);
+		if (stamp == null || stamp.size != attrs.size() || stamp.modified != modified) {
+			stamp = new Stamp();
+			stamp.size = attrs.size();
+			stamp.modified = modified;
+			stamp.hash = FileHashes.hash(file);
+			stamps.put(path, stamp);
+		}
+		return stamp.hash;
+	}
+
+	void close () {
+		executor.shutdownNow();
+		disconnect();
+	}
+
+	private synchronized void disconnect () {
+		if (socket == null) return;
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+		socket = null;
+		in = null;
+		out = null;
+		device = null;
+	}
+
+	private static class Stamp {
+		long size;
+		long modified;
+		String hash;
+	}
+}
@@ -1,21 +1,17 @@
 package io.piotrjastrzebski.assetreload.desktop;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
-import com.badlogic.gdx.tools.texturepacker.TexturePacker;
-import com.badlogic.gdx.utils.async.AsyncExecutor;
-import com.badlogic.gdx.utils.async.AsyncTask;
 import io.piotrjastrzebski.assetreload.AssetsGame;
+import io.piotrjastrzebski.assetreload.ChangeSet;
 import io.piotrjastrzebski.assetreload.Platform;
+import io.piotrjastrzebski.assetreload.ReloadTrace;
 
 import java.io.IOException;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import static java.nio.file.StandardWatchEventKinds.*;
+import java.nio.file.Paths;
 
 public class DesktopLauncher {
 	public static void main (String[] arg) {
@@ -27,179 +23,88 @@ public class DesktopLauncher {
 
 	private static class DesktopPlatform implements Platform {
 		private static final String TAG = DesktopPlatform.class.getSimpleName();
+		// how long to wait for more changes before we start processing, saves tend to fire a bunch of events
+		private static final long QUIET_PERIOD = Long.getLong("assetreload.quietPeriod", 250);
 		private Listener listener;
-		private AsyncExecutor executor;
-		private AtomicBoolean isProcessingAssets = new AtomicBoolean(false);
+		private ChangeScheduler scheduler;
 		private Thread watcher;
+		private AssetRoots roots;
+		private AssetPipeline pipeline;
+		/** device that gets processed assets as well, if there is one */
+		private DeltaSender sender;
 
 		@Override public void dispose () {
 			if (watcher != null) watcher.interrupt();
-			executor.dispose();
+			scheduler.dispose();
+			if (pipeline != null) pipeline.dispose();
+			if (sender != null) sender.close();
 		}
 
 		@Override public void start (final Listener listener, final boolean watch) {
 			this.listener = listener;
-			executor = new AsyncExecutor(1);
-
-			if (watch) {
-				watcher = new Thread(new Runnable() {
-					@Override public void run () {
-						Path rawAssets = Paths.get(System.getProperty("user.dir")).getParent().getParent().resolve("raw-assets");
-						FileSystem fs = rawAssets.getFileSystem();
-						try {
-							WatchService watcher = fs.newWatchService();
-							rawAssets.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-
-							while (true) {
-								WatchKey key = watcher.take();
-								for (WatchEvent<?> watchEvent : key.pollEvents()) {
-									WatchEvent.Kind kind = watchEvent.kind();
-									// we don't really care about specific event type, if stuff happens repack all the things
-									// note: we get multiple events per change sometimes
-									if (ENTRY_CREATE == kind || ENTRY_MODIFY == kind || ENTRY_DELETE == kind) {
-										Path context = (Path)watchEvent.context();
-										if (context.toAbsolutePath().toString().contains("atlas")) {
-											processAssetsAsync("atlas");
-										} else {
-											processAssetsAsync("particle");
-										}
-									}
-								}
+			scheduler = new ChangeScheduler(QUIET_PERIOD, new ChangeScheduler.Processor() {
+				@Override public void process (ChangeSet changes, Cancellation cancellation)
+					throws Cancellation.CancelledException {
+					process(changes, cancellation);
+				}
+			});
 
-								if (!key.reset()) {
-									Gdx.app.error(TAG, "Watcher stopped?");
-									break;
-								}
-							}
-						} catch (IOException ex) {
-							ex.printStackTrace();
-						} catch (InterruptedException ex) {
-							Gdx.app.log(TAG, "Watcher thread stopped");
-						}
+			roots = AssetRoots.find(Paths.get(System.getProperty("user.dir")));
+			if (roots == null) {
+				Gdx.app.error(TAG, "No raw-assets and android/assets found, set assetreload.raw and assetreload.assets");
+			}
+			String device = System.getProperty("assetreload.device");
+			if (device != null && roots != null) sender = new DeltaSender(device, roots.assets);
+			if (watch && roots != null) {
+				watcher = new Thread(new RecursiveWatcher(roots.raw, new RecursiveWatcher.Listener() {
+					@Override public void changed (ChangeSet changes) {
+						scheduler.submit(changes);
 					}
-				});
+				}), "RecursiveWatcher");
 				watcher.start();
 			}
 		}
 
-		@Override public void processAssetsAsync (final String type) {
-			// submit only if there is nothing running
-			// not 100% sure this is correct
-			// this probably should be cancel previous one, start new
-			// but there is no easy way to cancel packing
-			if (isProcessingAssets.compareAndSet(false, true)) {
-				executor.submit(new AsyncTask<Object>() {
-					@Override public Object call () throws Exception {
-						processAssets(type);
-						isProcessingAssets.set(false);
-						return null;
-					}
-				});
-			} else {
-				Gdx.app.log(TAG, "Not processing, already in progress");
+		@Override public void processAssetsAsync (final ChangeSet changes) {
+			// cancels processing that is running, it is merged with these changes and processed again
+			scheduler.submit(changes);
+		}
+
+		@Override public FileHandleResolver getResolver () {
+			return new InternalFileHandleResolver();
+		}
+
+		@Override public void processAssets (final ChangeSet changes) {
+			try {
+				process(changes, Cancellation.NONE);
+			} catch (Cancellation.CancelledException ex) {
+				throw new AssertionError(ex);
 			}
 		}
 
-		@Override public void processAssets (final String type) {
-			Gdx.app.log(TAG, "Processing assets...");
-			Path cwd = Paths.get(System.getProperty("user.dir"));
-			// if we are in android/assets, we will assume that we are running from ide
-			if (cwd.getFileName().toString().equals("assets") && cwd.getParent().getFileName().toString().equals("android")) {
-				Path assets = cwd.resolve("raw/atlas");
+		/**
+		 * Synchronized, as pipeline and listener take one batch at a time, sync processing can be called from any thread
+		 */
+		private synchronized void process (ChangeSet changes, Cancellation cancellation)
+			throws Cancellation.CancelledException {
+			Gdx.app.log(TAG, "Processing assets " + changes);
+			// game loads what is processed only if it runs from the assets root, android/assets when run from ide
+			if (roots != null) {
+				if (pipeline == null) pipeline = new AssetPipeline(roots.raw, roots.assets, roots.cache);
 				try {
-					deletePath(assets);
-					Files.createDirectory(assets);
-				} catch (IOException e) {
-					e.printStackTrace();
-					return;
-				}
-				Path atlasses = cwd.resolve("pack");
-				try {
-					deletePath(atlasses);
-					Files.createDirectory(atlasses);
-				} catch (IOException e) {
-					e.printStackTrace();
-					Gdx.app.error(TAG, "", e);
-					return;
-				}
-				Path raw = cwd.getParent().getParent().resolve("raw-assets/atlas");
-				if (!Files.exists(assets)) {
-					Gdx.app.error(TAG, "raw-assets doesn't exists! " + raw);
-					return;
-				}
-				try {
-					FileVisitor visitor = new FileVisitor(raw, assets);
-					Files.walkFileTree(raw, visitor);
-					TexturePacker.process(assets.toAbsolutePath().toString(), atlasses.toAbsolutePath().toString(), "assets");
-
-					assets = cwd.resolve("particles");
-					raw = cwd.getParent().getParent().resolve("raw-assets/particles");
-					visitor = new FileVisitor(raw, assets);
-					Files.walkFileTree(raw, visitor);
+					pipeline.process(changes, cancellation);
+				} catch (Cancellation.CancelledException ex) {
+					throw ex;
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
-
-			} else {
-				// TODO make this work?
 			}
 
 			Gdx.app.log(TAG, "Processing assets finished");
-			Gdx.app.postRunnable(new Runnable() {
-				@Override public void run () {
-					listener.assetsProcessed(type);
-				}
-			});
-		}
-
-		private void deletePath (Path path) throws IOException {
-			if (!Files.exists(path)) return;
-
-			Files.walkFileTree(path, new SimpleFileVisitor<Path>(){
-				@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
-					if (Files.exists(file)) Files.delete(file);
-					return FileVisitResult.CONTINUE;
-				}
-
-				@Override public FileVisitResult postVisitDirectory (Path dir, IOException exc) throws IOException {
-					if (Files.exists(dir)) Files.delete(dir);
-					return FileVisitResult.CONTINUE;
-				}
-			});
-		}
-	}
-
-	private static class FileVisitor extends SimpleFileVisitor<Path> {
-		private static final String TAG = FileVisitor.class.getSimpleName();
-		private final Path source;
-		private final Path destination;
-
-		FileVisitor (Path source, Path destination) {
-			this.source = source;
-			this.destination = destination;
-		}
-
-		@Override
-		public FileVisitResult preVisitDirectory(final Path dir,final BasicFileAttributes attrs) throws IOException {
-			Files.createDirectories(destination.resolve(source.relativize(dir)));
-			return FileVisitResult.CONTINUE;
-		}
-
-		@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
-			Path target = destination.resolve(source.relativize(file));
-			if (Files.exists(target)) {
-				// there are not strings defined for this?
-				FileTime sourceTime = (FileTime)Files.getAttribute(file, "lastModifiedTime");
-				FileTime targetTime = (FileTime)Files.getAttribute(target, "lastModifiedTime");
-				if (sourceTime.compareTo(targetTime) > 0) {
-//					Gdx.app.log(TAG, "copy " + file);
-					Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
-				}
-			} else {
-//				Gdx.app.log(TAG, "copy " + file);
-				Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
-			}
-			return FileVisitResult.CONTINUE;
+			changes.getTrace().mark(ReloadTrace.Stage.PROCESSED);
+			if (sender != null) sender.sendAsync(changes);
+			// listener hands it over to render thread
+			listener.assetsProcessed(changes);
 		}
 	}
 }
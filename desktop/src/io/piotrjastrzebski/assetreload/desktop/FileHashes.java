@@ -0,0 +1,59 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashes used to figure out what actually changed between processing runs
+ */
+class FileHashes {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private FileHashes () {}
+
+	static String hash (Path file) throws IOException {
+		MessageDigest digest = digest();
+		byte[] buffer = new byte[8192];
+		try (InputStream is = Files.newInputStream(file)) {
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	static String hash (byte[] bytes) {
+		return hex(digest().digest(bytes));
+	}
+
+	static String hash (String text) {
+		try {
+			return hash(text.getBytes("UTF-8"));
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static MessageDigest digest () {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every jvm is required to support SHA-1
+			throw new AssertionError(e);
+		}
+	}
+
+	private static String hex (byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,195 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Makes destination directory contain same files as source directory
+ *
+ * We keep an index of file sizes, modification times and content hashes between runs. Files with same size and time
+ * as last time are not read at all, files that were touched are hashed and skipped if content is the same. Changed
+ * files are copied, or hard linked if enabled, and files that are gone from source are deleted.
+ */
+class FileSync {
+	private static final String TAG = FileSync.class.getSimpleName();
+
+	private final Path source;
+	private final Path destination;
+	private final Path indexFile;
+	private final Json json;
+	private boolean links;
+	private Index index;
+
+	/**
+	 * @param indexFile where we keep state between runs
+	 */
+	FileSync (Path source, Path destination, Path indexFile) {
+		this.source = source;
+		this.destination = destination;
+		this.indexFile = indexFile;
+		json = new Json();
+		json.setOutputType(JsonWriter.OutputType.json);
+	}
+
+	/**
+	 * Hard links are cheaper than copies, but share content with source, so in place edits show up in destination
+	 * right away, possibly half written. Off by default, once linking fails we copy until enabled again
+	 */
+	public void setLinks (boolean links) {
+		this.links = links;
+	}
+
+	public Result sync () throws IOException {
+		long start = System.nanoTime();
+		final Result result = new Result();
+		final Index previous = loadIndex();
+		final Index next = new Index();
+		Files.createDirectories(destination);
+		if (Files.exists(source)) {
+			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+				@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+					String path = relative(source, file);
+					Entry entry = sync(file, path, attrs, previous.files.get(path), result);
+					next.files.put(path, entry);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		// anything that is not in source anymore has to go
+		Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+				String path = relative(destination, file);
+				if (!next.files.containsKey(path)) {
+					Files.delete(file);
+					result.deleted.add(path);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override public FileVisitResult postVisitDirectory (Path dir, IOException exc) throws IOException {
+				if (exc != null) throw exc;
+				if (!dir.equals(destination) && !Files.isDirectory(source.resolve(relative(destination, dir)))) {
+					try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+						if (stream.iterator().hasNext()) return FileVisitResult.CONTINUE;
+					}
+					Files.delete(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		index = next;
+		Files.createDirectories(indexFile.getParent());
+		json.toJson(next, Index.class, new FileHandle(indexFile.toFile()));
+		Gdx.app.log(TAG, "Synced " + source.getFileName() + ", " + result.copied.size + " copied, " + result.deleted.size
+			+ " deleted, " + result.unchanged + " unchanged in " + (System.nanoTime() - start) / 1000000 + "ms");
+		return result;
+	}
+
+	private Entry sync (Path file, String path, BasicFileAttributes attrs, Entry previous, Result result)
+		throws IOException {
+		Path target = destination.resolve(path);
+		Entry entry = new Entry();
+		entry.size = attrs.size();
+		entry.modified = attrs.lastModifiedTime().toMillis();
+		boolean touched = previous == null || previous.size != entry.size || previous.modified != entry.modified;
+		entry.hash = touched ? FileHashes.hash(file) : previous.hash;
+
+		BasicFileAttributes targetAttrs = null;
+		if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+			targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+		}
+		if (targetAttrs != null && targetAttrs.size() == entry.size) {
+			boolean same;
+			if (previous != null && previous.targetModified == targetAttrs.lastModifiedTime().toMillis()) {
+				// target is as we left it, so it matches previous hash
+				same = previous.hash.equals(entry.hash);
+			} else {
+				same = FileHashes.hash(target).equals(entry.hash);
+			}
+			if (same) {
+				entry.targetModified = targetAttrs.lastModifiedTime().toMillis();
+				result.unchanged++;
+				return entry;
+			}
+		}
+
+		Files.createDirectories(target.getParent());
+		Files.deleteIfExists(target);
+		if (!links || !link(file, target)) {
+			copy(file, target);
+		}
+		entry.targetModified = Files.getLastModifiedTime(target).toMillis();
+		result.copied.add(path);
+		return entry;
+	}
+
+	private boolean link (Path file, Path target) {
+		try {
+			Files.createLink(target, file);
+			return true;
+		} catch (IOException | UnsupportedOperationException ex) {
+			// different file stores or file system that cant do it, we wont try again
+			Gdx.app.log(TAG, "Hard links not available, copying instead: " + ex);
+			links = false;
+			return false;
+		}
+	}
+
+	private static void copy (Path file, Path target) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	private Index loadIndex () {
+		if (index != null) return index;
+		if (!Files.exists(indexFile)) return new Index();
+		try {
+			return json.fromJson(Index.class, new String(Files.readAllBytes(indexFile), UTF_8));
+		} catch (Exception ex) {
+			Gdx.app.error(TAG, "Broken index " + indexFile + ", hashing everything", ex);
+			return new Index();
+		}
+	}
+
+	private static String relative (Path root, Path path) {
+		return root.relativize(path).toString().replace('\\', '/');
+	}
+
+	public static class Result {
+		/** paths relative to source that were copied or linked */
+		public final Array<String> copied = new Array<>();
+		/** paths relative to destination that were deleted */
+		public final Array<String> deleted = new Array<>();
+		public int unchanged;
+	}
+
+	static class Index {
+		ObjectMap<String, Entry> files = new ObjectMap<>();
+	}
+
+	static class Entry {
+		long size;
+		long modified;
+		String hash;
+		/** modification time of destination file when we last saw it */
+		long targetModified;
+	}
+}
@@ -0,0 +1,945 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.tools.texturepacker.TexturePacker;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import io.piotrjastrzebski.assetreload.BinaryAtlas;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * Packs raw atlas folder in a way that allows us to rebuild only parts of it
+ *
+ * We keep a manifest with content hash and page of each region, when stuff changes only pages that contain
+ * changed, added or removed regions are packed again. Other pages, and their files, are left alone.
+ * Page files are named after their content, so a repacked page never replaces a file that is in use
+ *
+ * Images are hashed only if their size or modification time changed since the manifest was written, so checking an
+ * atlas that didn't change doesn't read any of it. Published manifests are also kept by a hash of all inputs, if the
+ * inputs go back to a state we packed before, and its pages are still around, we use that without packing
+ *
+ * Images that changed only their pixels, keeping size and trimmed bounds, are drawn over their regions instead, pages
+ * keep their layout and the game can patch its textures in place
+ */
+class IncrementalAtlasPacker {
+	private static final String TAG = IncrementalAtlasPacker.class.getSimpleName();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String SETTINGS = "pack.json";
+	/** manifests kept by input hash, older ones are deleted */
+	private static final int SNAPSHOTS = 8;
+
+	private final Path input;
+	private final Path output;
+	private final String name;
+	private final Path workDir;
+	private final Path manifestFile;
+	private final Path snapshotDir;
+	/** page files of this atlas, but not of other atlases with names that start with ours */
+	private final Pattern pageFiles;
+	private final Json json;
+	private final ObjectSet<String> excludes = new ObjectSet<>();
+	private Manifest manifest;
+	/** modification time of manifest file, images modified since could have changed after they were hashed */
+	private long manifestWritten;
+	private Manifest packed;
+	private Result lastResult;
+
+	/**
+	 * @param input   raw atlas directory, with optional pack.json
+	 * @param output  directory for the .atlas file and its pages
+	 * @param name    name of the atlas, without extension
+	 * @param workDir directory for the manifest and temporary pack output
+	 */
+	IncrementalAtlasPacker (Path input, Path output, String name, Path workDir) {
+		this.input = input;
+		this.output = output;
+		this.name = name;
+		pageFiles = Pattern.compile(Pattern.quote(name) + "(-[0-9a-f]{12}|[0-9]*)\\.png");
+		this.workDir = workDir;
+		manifestFile = workDir.resolve(name + "-manifest.json");
+		snapshotDir = workDir.resolve(name + "-packs");
+		json = new Json();
+		json.setOutputType(JsonWriter.OutputType.json);
+	}
+
+	/**
+	 * Sub directory of input that should not be packed in to this atlas
+	 */
+	public void exclude (String path) {
+		excludes.add(path);
+	}
+
+	public void clearExcludes () {
+		excludes.clear();
+	}
+
+	/**
+	 * Packs pages that changed, new page files are written to output, but nothing that is in use is changed
+	 * until {@link #publish(int)} is called
+	 */
+	public Result pack () throws IOException {
+		return pack(Cancellation.NONE);
+	}
+
+	/**
+	 * Same as {@link #pack()}, but stops between groups of pages once cancelled. Nothing is published then, pages that
+	 * were written are removed by garbage collection of the pipeline
+	 */
+	Result pack (Cancellation cancellation) throws IOException {
+		cancellation.check();
+		Result result = new Result();
+		lastResult = result;
+		packed = null;
+		Files.createDirectories(output);
+		Files.createDirectories(workDir);
+
+		Path settingsFile = input.resolve(SETTINGS);
+		TexturePacker.Settings settings = new TexturePacker.Settings();
+		String settingsHash = "default";
+		if (Files.exists(settingsFile)) {
+			byte[] bytes = Files.readAllBytes(settingsFile);
+			json.readFields(settings, new JsonReader().parse(new String(bytes, UTF_8)));
+			settingsHash = FileHashes.hash(bytes);
+		}
+
+		Manifest previous = loadManifest();
+		ObjectMap<String, Region> images = scan(previous);
+		ObjectMap<String, String> hashes = new ObjectMap<>(images.size);
+		for (ObjectMap.Entry<String, Region> entry : images) {
+			hashes.put(entry.key, entry.value.hash);
+		}
+		String inputs = inputs(settingsHash, hashes);
+		cancellation.check();
+
+		boolean full = previous == null || !settingsHash.equals(previous.settings) || !isComplete(previous);
+		if (!full && inputs.equals(previous.inputs)) {
+			Gdx.app.log(TAG, "Nothing to pack in " + name);
+			manifest = previous;
+			if (!isStamped(previous, images)) save(stamp(previous, images, inputs));
+			return result;
+		}
+		if (full) previous = new Manifest();
+
+		// figure out what needs to be packed again
+		ObjectSet<String> dirty = new ObjectSet<>();
+		Array<String> added = new Array<>();
+		Array<String> modified = new Array<>();
+		ObjectSet<String> removed = new ObjectSet<>();
+		for (ObjectMap.Entry<String, String> entry : hashes) {
+			Region region = previous.regions.get(entry.key);
+			if (region == null) {
+				added.add(entry.key);
+			} else if (!region.hash.equals(entry.value)) {
+				dirty.add(region.page);
+				modified.add(entry.key);
+			}
+		}
+		for (ObjectMap.Entry<String, Region> entry : previous.regions) {
+			if (!hashes.containsKey(entry.key)) {
+				removed.add(entry.key);
+				dirty.add(entry.value.page);
+			}
+		}
+
+		if (dirty.size == 0 && added.size == 0) {
+			Gdx.app.log(TAG, "Nothing to pack in " + name);
+			manifest = previous;
+			save(stamp(previous, images, inputs));
+			return result;
+		}
+
+		if (added.size == 0 && removed.size == 0) {
+			cancellation.check();
+			Manifest patched = patch(settings, previous, modified, hashes, result);
+			if (patched != null) {
+				result.changed = true;
+				result.patched = true;
+				packed = stamp(patched, images, inputs);
+				Gdx.app.log(TAG, "Patched " + modified + " into " + name + ", pages written " + result.writtenPages);
+				return result;
+			}
+			// patching may have written some pages before it gave up
+			result.writtenPages.clear();
+			result.removedPages.clear();
+			result.regions.clear();
+			result.patches.clear();
+		}
+
+		// patched pages are cheaper for the game, so we look for a snapshot only if patching didn't work
+		Manifest snapshot = loadSnapshot(inputs);
+		if (snapshot != null) {
+			restore(settings, previous, snapshot, result);
+			packed = stamp(snapshot, images, inputs);
+			Gdx.app.log(TAG, "Reused pack of " + name + " with same inputs, pages written " + result.writtenPages);
+			return result;
+		}
+		if (full) Gdx.app.log(TAG, "Full pack of " + name);
+
+		// new regions go to the least used page that we are packing anyway, or the least used page if we are not
+		Page target = null;
+		for (Page page : previous.pages) {
+			if (dirty.size > 0 && !dirty.contains(page.file)) continue;
+			if (target == null || page.area < target.area) target = page;
+		}
+		if (target != null) dirty.add(target.file);
+
+		Manifest next = new Manifest();
+		next.settings = settingsHash;
+		Path tmp = Files.createTempDirectory(workDir, name);
+		try {
+			for (Page page : previous.pages) {
+				if (!dirty.contains(page.file)) {
+					next.pages.add(page);
+					for (String path : page.regions) {
+						next.regions.put(path, previous.regions.get(path));
+					}
+					continue;
+				}
+				Array<String> paths = new Array<>();
+				for (String path : page.regions) {
+					if (!removed.contains(path)) paths.add(path);
+				}
+				if (page == target) paths.addAll(added);
+				cancellation.check();
+				packGroup(settings, paths, hashes, tmp, next, result);
+				result.removedPages.add(page.file);
+			}
+			if (target == null && added.size > 0) {
+				cancellation.check();
+				packGroup(settings, added, hashes, tmp, next, result);
+			}
+		} finally {
+			deletePath(tmp);
+		}
+
+		ObjectSet<String> used = new ObjectSet<>();
+		for (Page page : next.pages) {
+			used.add(page.file);
+		}
+		// pages with identical content keep the same file, dont remove those
+		for (int i = result.removedPages.size - 1; i >= 0; i--) {
+			if (used.contains(result.removedPages.get(i))) result.removedPages.removeIndex(i);
+		}
+		for (Page page : next.pages) {
+			if (isPage(previous, page.file)) {
+				result.writtenPages.removeValue(page.file, false);
+			} else {
+				result.regions.addAll(page.regionNames);
+			}
+		}
+		// users of removed regions need to know they are gone
+		for (String path : removed) {
+			result.regions.add(regionName(path, settings));
+		}
+		if (full) {
+			// get rid of anything left from previous full packs
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(output, name + "*.png")) {
+				for (Path file : stream) {
+					String fileName = file.getFileName().toString();
+					if (pageFiles.matcher(fileName).matches() && !used.contains(fileName)) result.removedPages.add(fileName);
+				}
+			}
+		}
+		result.changed = true;
+		packed = stamp(next, images, inputs);
+		Gdx.app.log(TAG, "Packed " + name + ", pages written " + result.writtenPages + ", removed " + result.removedPages);
+		return result;
+	}
+
+	/**
+	 * Draws modified images over their regions, when all of them keep their size and trimmed bounds, so the layout of
+	 * the atlas stays the same and only pixels of the pages change
+	 *
+	 * @return manifest with patched pages, null if any of the images can't be patched and pages need to be packed
+	 */
+	private Manifest patch (TexturePacker.Settings settings, Manifest previous, Array<String> modified,
+		ObjectMap<String, String> hashes, Result result) throws IOException {
+		if (!canPatch(settings)) return null;
+		int padX = settings.duplicatePadding ? settings.paddingX / 2 : 0;
+		int padY = settings.duplicatePadding ? settings.paddingY / 2 : 0;
+		ObjectMap<String, Array<String>> byPage = new ObjectMap<>();
+		ObjectMap<String, Layout> layouts = new ObjectMap<>();
+		ObjectMap<String, BufferedImage> images = new ObjectMap<>();
+		for (String path : modified) {
+			if (path.toLowerCase().endsWith(".9.png")) return null;
+			Region region = previous.regions.get(path);
+			Page page = getPage(previous, region.page);
+			if (page == null) return null;
+			Layout layout = findLayout(parseLayouts(page.section), regionName(path, settings));
+			if (layout == null || layout.rotate) return null;
+			BufferedImage image = ImageIO.read(input.resolve(path).toFile());
+			if (image == null || image.getWidth() != layout.origWidth || image.getHeight() != layout.origHeight) return null;
+			int[] bounds = trim(image, settings);
+			int top = layout.origHeight - layout.height - layout.offsetY;
+			if (bounds == null || bounds[0] != layout.offsetX || bounds[1] != top || bounds[2] != layout.width
+				|| bounds[3] != layout.height) {
+				return null;
+			}
+			Array<String> paths = byPage.get(page.file);
+			if (paths == null) {
+				paths = new Array<>();
+				byPage.put(page.file, paths);
+			}
+			paths.add(path);
+			layouts.put(path, layout);
+			images.put(path, image);
+		}
+
+		Manifest next = new Manifest();
+		next.settings = previous.settings;
+		ObjectMap<String, String> renamed = new ObjectMap<>();
+		for (Page page : previous.pages) {
+			Array<String> paths = byPage.get(page.file);
+			if (paths == null) {
+				next.pages.add(page);
+				continue;
+			}
+			BufferedImage canvas = ImageIO.read(output.resolve(page.file).toFile());
+			if (canvas == null) return null;
+			if (canvas.getType() != BufferedImage.TYPE_4BYTE_ABGR && canvas.getType() != BufferedImage.TYPE_INT_ARGB) {
+				// drawImage would blend semi transparent pixels, copy them as they are
+				BufferedImage source = canvas;
+				int width = source.getWidth();
+				canvas = new BufferedImage(width, source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+				canvas.setRGB(0, 0, width, source.getHeight(), source.getRGB(0, 0, width, source.getHeight(), null, 0, width), 0, width);
+			}
+			Array<PagePatch> patches = new Array<>();
+			for (String path : paths) {
+				Layout layout = layouts.get(path);
+				BufferedImage image = images.get(path);
+				int top = layout.origHeight - layout.height - layout.offsetY;
+				int[] pixels = image.getRGB(layout.offsetX, top, layout.width, layout.height, null, 0, layout.width);
+				canvas.setRGB(layout.x, layout.y, layout.width, layout.height, pixels, 0, layout.width);
+				duplicatePadding(canvas, layout, padX, padY);
+				PagePatch patch = new PagePatch();
+				patch.x = Math.max(layout.x - padX, 0);
+				patch.y = Math.max(layout.y - padY, 0);
+				patch.width = Math.min(layout.x + layout.width + padX, canvas.getWidth()) - patch.x;
+				patch.height = Math.min(layout.y + layout.height + padY, canvas.getHeight()) - patch.y;
+				patches.add(patch);
+				result.regions.add(layout.name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(canvas, "png", out);
+			byte[] bytes = out.toByteArray();
+			Page patched = new Page();
+			patched.file = name + "-" + FileHashes.hash(bytes).substring(0, 12) + ".png";
+			patched.section = page.section;
+			patched.regions = page.regions;
+			patched.area = page.area;
+			Path target = output.resolve(patched.file);
+			if (!Files.exists(target)) AtomicFiles.write(target, bytes);
+			for (PagePatch patch : patches) {
+				patch.page = page.file;
+				patch.file = patched.file;
+				result.patches.add(patch);
+			}
+			result.writtenPages.add(patched.file);
+			result.removedPages.add(page.file);
+			renamed.put(page.file, patched.file);
+			next.pages.add(patched);
+		}
+		for (ObjectMap.Entry<String, Region> entry : previous.regions) {
+			Region region = new Region();
+			region.hash = hashes.get(entry.key);
+			region.page = renamed.get(entry.value.page, entry.value.page);
+			next.regions.put(entry.key, region);
+		}
+		return next;
+	}
+
+	/**
+	 * Patching keeps page pixels as they are outside of the changed regions, settings that process whole pages or
+	 * resample images need a proper pack
+	 */
+	private static boolean canPatch (TexturePacker.Settings settings) {
+		if (settings.premultiplyAlpha || settings.grid) return false;
+		if (settings.scale.length != 1 || settings.scale[0] != 1) return false;
+		String format = settings.outputFormat.toLowerCase();
+		if (!format.equals("png")) return false;
+		if (settings.filterMin.isMipMap()) return false;
+		// bleed changes color of transparent pixels, that only matters when they are filtered
+		if (settings.bleed && (settings.filterMin != Texture.TextureFilter.Nearest
+			|| settings.filterMag != Texture.TextureFilter.Nearest)) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Bounds left after whitespace is stripped, same as {@link TexturePacker} does it
+	 *
+	 * @return x, y, width and height, null if nothing is left
+	 */
+	private static int[] trim (BufferedImage image, TexturePacker.Settings settings) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int top = 0, bottom = 0, left = 0, right = 0;
+		if (settings.stripWhitespaceY) {
+			outer:
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if ((image.getRGB(x, y) >>> 24) > settings.alphaThreshold) break outer;
+				}
+				top++;
+			}
+			outer:
+			for (int y = height; --y >= top; ) {
+				for (int x = 0; x < width; x++) {
+					if ((image.getRGB(x, y) >>> 24) > settings.alphaThreshold) break outer;
+				}
+				bottom++;
+			}
+			// packer leaves 1px so nothing is copied into padding
+			if (settings.duplicatePadding) {
+				if (top > 0) top--;
+				if (bottom > 0) bottom--;
+			}
+		}
+		if (settings.stripWhitespaceX) {
+			outer:
+			for (int x = 0; x < width; x++) {
+				for (int y = top; y < height - bottom; y++) {
+					if ((image.getRGB(x, y) >>> 24) > settings.alphaThreshold) break outer;
+				}
+				left++;
+			}
+			outer:
+			for (int x = width; --x >= left; ) {
+				for (int y = top; y < height - bottom; y++) {
+					if ((image.getRGB(x, y) >>> 24) > settings.alphaThreshold) break outer;
+				}
+				right++;
+			}
+			if (settings.duplicatePadding) {
+				if (left > 0) left--;
+				if (right > 0) right--;
+			}
+		}
+		int newWidth = width - left - right;
+		int newHeight = height - top - bottom;
+		if (newWidth <= 0 || newHeight <= 0) return null;
+		return new int[] {left, top, newWidth, newHeight};
+	}
+
+	/**
+	 * Copies edges of region into padding around it, same as {@link TexturePacker} does with duplicatePadding
+	 */
+	private static void duplicatePadding (BufferedImage canvas, Layout layout, int padX, int padY) {
+		int x0 = layout.x, y0 = layout.y;
+		int x1 = layout.x + layout.width - 1, y1 = layout.y + layout.height - 1;
+		for (int y = y0 - padY; y <= y1 + padY; y++) {
+			if (y < 0 || y >= canvas.getHeight()) continue;
+			int sourceY = Math.min(Math.max(y, y0), y1);
+			for (int x = x0 - padX; x <= x1 + padX; x++) {
+				if (x < 0 || x >= canvas.getWidth()) continue;
+				if (x >= x0 && x <= x1 && y >= y0 && y <= y1) continue;
+				int sourceX = Math.min(Math.max(x, x0), x1);
+				canvas.setRGB(x, y, canvas.getRGB(sourceX, sourceY));
+			}
+		}
+	}
+
+	/**
+	 * @return layout of region with given name, null if there isn't exactly one
+	 */
+	private static Layout findLayout (Array<Layout> layouts, String name) {
+		Layout found = null;
+		for (Layout layout : layouts) {
+			if (!layout.name.equals(name)) continue;
+			if (found != null) return null;
+			found = layout;
+		}
+		if (found == null) return null;
+		// aliases share pixels, after the change they wont
+		for (Layout layout : layouts) {
+			if (layout != found && layout.x == found.x && layout.y == found.y) return null;
+		}
+		return found;
+	}
+
+	/**
+	 * Parses regions of a page section
+	 */
+	static Array<Layout> parseLayouts (String section) {
+		Array<Layout> layouts = new Array<>();
+		Layout layout = null;
+		boolean header = true;
+		for (String line : section.split("\r?\n")) {
+			if (line.trim().length() == 0) continue;
+			if (line.charAt(0) != ' ') {
+				if (header && (line.startsWith("size:") || line.startsWith("format:") || line.startsWith("filter:")
+					|| line.startsWith("repeat:"))) {
+					continue;
+				}
+				header = false;
+				layout = new Layout();
+				layout.name = line;
+				layouts.add(layout);
+				continue;
+			}
+			if (layout == null) continue;
+			String entry = line.trim();
+			int colon = entry.indexOf(':');
+			if (colon == -1) continue;
+			String key = entry.substring(0, colon);
+			String[] values = entry.substring(colon + 1).split(",");
+			switch (key) {
+			case "rotate":
+				layout.rotate = !values[0].trim().equals("false");
+				break;
+			case "xy":
+				layout.x = Integer.parseInt(values[0].trim());
+				layout.y = Integer.parseInt(values[1].trim());
+				break;
+			case "size":
+				layout.width = Integer.parseInt(values[0].trim());
+				layout.height = Integer.parseInt(values[1].trim());
+				break;
+			case "orig":
+				layout.origWidth = Integer.parseInt(values[0].trim());
+				layout.origHeight = Integer.parseInt(values[1].trim());
+				break;
+			case "offset":
+				layout.offsetX = Integer.parseInt(values[0].trim());
+				layout.offsetY = Integer.parseInt(values[1].trim());
+				break;
+			}
+		}
+		return layouts;
+	}
+
+	private static Page getPage (Manifest manifest, String file) {
+		for (Page page : manifest.pages) {
+			if (page.file.equals(file)) return page;
+		}
+		return null;
+	}
+
+	/**
+	 * Writes atlas file for last {@link #pack()} as given version, readers find it through the version it belongs to.
+	 * Pages that are no longer used are left alone, older versions may still need them. It is written in
+	 * {@link BinaryAtlas} format as well, next to the text one
+	 *
+	 * @return name of the versioned atlas file
+	 */
+	public String publish (int version) throws IOException {
+		Manifest current = packed != null ? packed : loadManifest();
+		if (current == null) throw new IllegalStateException("Nothing packed for " + name);
+		StringBuilder atlas = new StringBuilder();
+		for (Page page : current.pages) {
+			atlas.append('\n').append(page.file).append('\n').append(page.section);
+		}
+		byte[] bytes = atlas.toString().getBytes(UTF_8);
+		String file = name + ".v" + version + ".atlas";
+		AtomicFiles.write(output.resolve(file), bytes);
+		byte[] binary = BinaryAtlasWriter.encode(output.resolve(file));
+		AtomicFiles.write(output.resolve(BinaryAtlas.binaryFile(file)), binary);
+		if (packed != null) {
+			save(packed);
+			saveSnapshot(packed);
+			packed = null;
+		}
+		return file;
+	}
+
+	/**
+	 * @return hash of everything that goes into a pack
+	 */
+	private static String inputs (String settingsHash, ObjectMap<String, String> hashes) {
+		Array<String> paths = hashes.keys().toArray();
+		paths.sort();
+		StringBuilder sb = new StringBuilder(settingsHash).append('\n');
+		for (String path : paths) {
+			sb.append(path).append(':').append(hashes.get(path)).append('\n');
+		}
+		return FileHashes.hash(sb.toString());
+	}
+
+	/**
+	 * @return copy of given manifest with regions stamped with size and time of images they were hashed from
+	 */
+	private static Manifest stamp (Manifest manifest, ObjectMap<String, Region> images, String inputs) {
+		Manifest stamped = new Manifest();
+		stamped.settings = manifest.settings;
+		stamped.inputs = inputs;
+		stamped.pages = manifest.pages;
+		for (ObjectMap.Entry<String, Region> entry : manifest.regions) {
+			Region region = new Region();
+			region.hash = entry.value.hash;
+			region.page = entry.value.page;
+			Region image = images.get(entry.key);
+			if (image != null && image.hash.equals(region.hash)) {
+				region.size = image.size;
+				region.modified = image.modified;
+			}
+			stamped.regions.put(entry.key, region);
+		}
+		return stamped;
+	}
+
+	private boolean isStamped (Manifest manifest, ObjectMap<String, Region> images) {
+		for (ObjectMap.Entry<String, Region> entry : manifest.regions) {
+			Region image = images.get(entry.key);
+			if (image == null) continue;
+			if (image.size != entry.value.size || image.modified != entry.value.modified) return false;
+			// written again, images won't have to be hashed next time
+			if (image.modified >= manifestWritten) return false;
+		}
+		return true;
+	}
+
+	private void save (Manifest manifest) {
+		this.manifest = manifest;
+		json.toJson(manifest, Manifest.class, new FileHandle(manifestFile.toFile()));
+		manifestWritten = manifestFile.toFile().lastModified();
+	}
+
+	/**
+	 * Fills result with differences between previous pack and the one we reuse
+	 */
+	private static void restore (TexturePacker.Settings settings, Manifest previous, Manifest snapshot, Result result) {
+		result.changed = true;
+		for (Page page : snapshot.pages) {
+			if (isPage(previous, page.file)) continue;
+			result.writtenPages.add(page.file);
+			for (String path : page.regions) {
+				result.regions.add(regionName(path, settings));
+			}
+		}
+		for (Page page : previous.pages) {
+			if (isPage(snapshot, page.file)) continue;
+			result.removedPages.add(page.file);
+			for (String path : page.regions) {
+				result.regions.add(regionName(path, settings));
+			}
+		}
+	}
+
+	/**
+	 * @return manifest published for given inputs, null if there isn't one or some of its pages are gone
+	 */
+	private Manifest loadSnapshot (String inputs) {
+		Path file = snapshotDir.resolve(inputs + ".json");
+		if (!Files.exists(file)) return null;
+		try {
+			Manifest snapshot = json.fromJson(Manifest.class, new String(Files.readAllBytes(file), UTF_8));
+			for (Page page : snapshot.pages) {
+				if (!Files.exists(output.resolve(page.file))) return null;
+			}
+			return snapshot;
+		} catch (Exception e) {
+			Gdx.app.error(TAG, "Broken pack snapshot " + file, e);
+			return null;
+		}
+	}
+
+	private void saveSnapshot (Manifest manifest) throws IOException {
+		if (manifest.inputs == null) return;
+		Files.createDirectories(snapshotDir);
+		AtomicFiles.write(snapshotDir.resolve(manifest.inputs + ".json"), json.toJson(manifest, Manifest.class).getBytes(UTF_8));
+		final Array<Path> snapshots = new Array<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotDir, "*.json")) {
+			for (Path file : stream) {
+				snapshots.add(file);
+			}
+		}
+		if (snapshots.size <= SNAPSHOTS) return;
+		final ObjectMap<Path, Long> times = new ObjectMap<>();
+		for (Path file : snapshots) {
+			times.put(file, Files.getLastModifiedTime(file).toMillis());
+		}
+		snapshots.sort(new Comparator<Path>() {
+			@Override public int compare (Path o1, Path o2) {
+				return Long.compare(times.get(o2), times.get(o1));
+			}
+		});
+		for (int i = SNAPSHOTS; i < snapshots.size; i++) {
+			Files.deleteIfExists(snapshots.get(i));
+		}
+	}
+
+	/**
+	 * @return result of last {@link #pack()}, null if there wasn't one
+	 */
+	public Result getLastResult () {
+		return lastResult;
+	}
+
+	public String getName () {
+		return name;
+	}
+
+	/**
+	 * Hashes images, unless their size and modification time are the same as in previous manifest
+	 *
+	 * @return image paths to regions with their hash and stamp, but without a page
+	 */
+	private ObjectMap<String, Region> scan (final Manifest previous) throws IOException {
+		final ObjectMap<String, Region> images = new ObjectMap<>();
+		if (!Files.exists(input)) return images;
+		Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) throws IOException {
+				return excludes.contains(relative(dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+				if (isImage(file)) {
+					String path = relative(file);
+					Region image = new Region();
+					image.size = attrs.size();
+					image.modified = attrs.lastModifiedTime().toMillis();
+					Region known = previous != null ? previous.regions.get(path) : null;
+					// same time as manifest or later and it could have been saved again within the time resolution
+					if (known != null && known.size == image.size && known.modified == image.modified
+						&& image.modified < manifestWritten) {
+						image.hash = known.hash;
+					} else {
+						image.hash = FileHashes.hash(file);
+					}
+					images.put(path, image);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return images;
+	}
+
+	/**
+	 * Packs given images, they will end up on one page unless they no longer fit
+	 */
+	private void packGroup (TexturePacker.Settings settings, Array<String> paths, ObjectMap<String, String> hashes,
+		Path tmp, Manifest next, Result result) throws IOException {
+		if (paths.size == 0) return;
+		Path groupDir = Files.createTempDirectory(tmp, "group");
+		TexturePacker packer = new TexturePacker(input.toFile(), settings);
+		for (String path : paths) {
+			packer.addImage(input.resolve(path).toFile());
+		}
+		packer.pack(groupDir.toFile(), name);
+
+		String text = new String(Files.readAllBytes(groupDir.resolve(name + ".atlas")), UTF_8);
+		Array<Page> pages = parsePages(text);
+		ObjectMap<String, Page> byRegion = new ObjectMap<>();
+		for (Page page : pages) {
+			byte[] bytes = Files.readAllBytes(groupDir.resolve(page.file));
+			String hash = FileHashes.hash(bytes);
+			String extension = page.file.substring(page.file.lastIndexOf('.'));
+			page.file = name + "-" + hash.substring(0, 12) + extension;
+			Path target = output.resolve(page.file);
+			if (!Files.exists(target)) {
+				AtomicFiles.write(target, bytes);
+			}
+			result.writtenPages.add(page.file);
+			for (String region : page.regionNames) {
+				byRegion.put(region, page);
+			}
+			next.pages.add(page);
+		}
+		for (String path : paths) {
+			Page page = byRegion.get(regionName(path, settings));
+			// ignored blank images and such, we still want to track them
+			if (page == null) page = pages.first();
+			page.regions.add(path);
+			Region region = new Region();
+			region.hash = hashes.get(path);
+			region.page = page.file;
+			next.regions.put(path, region);
+		}
+	}
+
+	/**
+	 * Splits .atlas text into pages, file is left as in the atlas, section contains everything after it
+	 */
+	static Array<Page> parsePages (String text) {
+		Array<Page> pages = new Array<>();
+		Page page = null;
+		StringBuilder section = null;
+		boolean header = false;
+		for (String line : text.split("\r?\n")) {
+			if (line.trim().length() == 0) {
+				if (page != null) page.section = section.toString();
+				page = null;
+				continue;
+			}
+			if (page == null) {
+				page = new Page();
+				page.file = line.trim();
+				section = new StringBuilder();
+				pages.add(page);
+				header = true;
+				continue;
+			}
+			section.append(line).append('\n');
+			if (line.charAt(0) != ' ') {
+				if (header && (line.startsWith("size:") || line.startsWith("format:") || line.startsWith("filter:")
+					|| line.startsWith("repeat:"))) {
+					continue;
+				}
+				header = false;
+				page.regionNames.add(line);
+			} else if (line.trim().startsWith("size:")) {
+				String[] size = line.trim().substring(5).split(",");
+				page.area += Integer.parseInt(size[0].trim()) * Integer.parseInt(size[1].trim());
+			}
+		}
+		if (page != null) page.section = section.toString();
+		return pages;
+	}
+
+	/**
+	 * Name of the region created for given image, same as {@link TexturePacker} would pick
+	 */
+	private static String regionName (String path, TexturePacker.Settings settings) {
+		String name = path;
+		int dot = name.lastIndexOf('.');
+		if (dot != -1) name = name.substring(0, dot);
+		if (settings.flattenPaths) {
+			name = name.substring(name.lastIndexOf('/') + 1);
+		}
+		if (name.endsWith(".9")) name = name.substring(0, name.length() - 2);
+		if (settings.useIndexes) {
+			int underscore = name.lastIndexOf('_');
+			if (underscore != -1 && name.substring(underscore + 1).matches("\\d+")) name = name.substring(0, underscore);
+		}
+		return name;
+	}
+
+	private Manifest loadManifest () {
+		if (manifest != null) return manifest;
+		if (!Files.exists(manifestFile)) return null;
+		try {
+			manifestWritten = Files.getLastModifiedTime(manifestFile).toMillis();
+			return json.fromJson(Manifest.class, new String(Files.readAllBytes(manifestFile), UTF_8));
+		} catch (Exception e) {
+			Gdx.app.error(TAG, "Broken manifest " + manifestFile + ", packing everything", e);
+			return null;
+		}
+	}
+
+	private boolean isComplete (Manifest manifest) {
+		for (Page page : manifest.pages) {
+			if (!Files.exists(output.resolve(page.file))) return false;
+		}
+		return true;
+	}
+
+	private static boolean isPage (Manifest manifest, String file) {
+		for (Page page : manifest.pages) {
+			if (page.file.equals(file)) return true;
+		}
+		return false;
+	}
+
+	private String relative (Path file) {
+		return input.relativize(file).toString().replace('\\', '/');
+	}
+
+	private static boolean isImage (Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg");
+	}
+
+	private static void deletePath (Path path) throws IOException {
+		if (!Files.exists(path)) return;
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override public FileVisitResult postVisitDirectory (Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public static class Result {
+		/** true if anything was packed, atlas file is written on publish */
+		public boolean changed;
+		/** page files that were not there before */
+		public Array<String> writtenPages = new Array<>();
+		/** page files that are no longer used */
+		public Array<String> removedPages = new Array<>();
+		/** names of regions on packed pages, their placement may be different, and of removed regions */
+		public ObjectSet<String> regions = new ObjectSet<>();
+		/** true if changes were drawn over existing pages, layout of the atlas is the same */
+		public boolean patched;
+		/** rectangles that changed on patched pages */
+		public Array<PagePatch> patches = new Array<>();
+	}
+
+	/**
+	 * Rectangle of a page that was patched, page is renamed as it is named after its content
+	 */
+	public static class PagePatch {
+		/** page file before the patch */
+		public String page;
+		/** page file after the patch */
+		public String file;
+		public int x;
+		public int y;
+		public int width;
+		public int height;
+	}
+
+	/**
+	 * Placement of a region on its page, as in the atlas file
+	 */
+	static class Layout {
+		String name;
+		boolean rotate;
+		int x;
+		int y;
+		int width;
+		int height;
+		int origWidth;
+		int origHeight;
+		int offsetX;
+		int offsetY;
+	}
+
+	public static class Manifest {
+		public String settings;
+		/** hash of settings and all images, see {@link #inputs(String, ObjectMap)} */
+		public String inputs;
+		public Array<Page> pages = new Array<>();
+		/** raw image path to its region */
+		public ObjectMap<String, Region> regions = new ObjectMap<>();
+	}
+
+	public static class Page {
+		public String file;
+		/** atlas text of this page, without the file name */
+		public String section;
+		/** raw image paths on this page */
+		public Array<String> regions = new Array<>();
+		public int area;
+		transient Array<String> regionNames = new Array<>();
+	}
+
+	public static class Region {
+		public String hash;
+		public String page;
+		/** size of the image when it was hashed */
+		public long size;
+		/** modification time of the image when it was hashed */
+		public long modified;
+	}
+}
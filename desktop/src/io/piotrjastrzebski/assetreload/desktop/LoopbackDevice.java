@@ -0,0 +1,75 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.utils.ObjectMap;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+import io.piotrjastrzebski.assetreload.DeltaProtocol;
+import io.piotrjastrzebski.assetreload.Platform;
+import io.piotrjastrzebski.assetreload.RemotePlatform;
+
+/**
+ * Stand-in for a device, receives processed assets on the headless backend the same way the android app does
+ *
+ * <pre>
+ * LoopbackDevice [--port port] dir
+ * </pre>
+ * Received files are kept in given directory, each change set is checked that every file it points at resolves to a
+ * received one. Run {@link AssetServer} with '--device port' to send to it.
+ */
+public class LoopbackDevice {
+	private static final String TAG = LoopbackDevice.class.getSimpleName();
+
+	public static void main (String[] args) {
+		int port = DeltaProtocol.DEFAULT_PORT;
+		String dir = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (dir == null && !args[i].startsWith("--")) {
+				dir = args[i];
+			} else {
+				dir = null;
+				break;
+			}
+		}
+		if (dir == null) {
+			System.err.println("Usage: LoopbackDevice [--port port] dir");
+			System.exit(2);
+			return;
+		}
+
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		config.renderInterval = 1;
+		new HeadlessApplication(new ApplicationAdapter() {}, config);
+
+		final RemotePlatform platform = new RemotePlatform(Gdx.files.absolute(dir), port);
+		platform.start(new Platform.Listener() {
+			@Override public void assetsProcessed (ChangeSet changes) {
+				FileHandleResolver resolver = platform.getResolver();
+				int missing = 0;
+				for (ObjectMap.Entry<String, String> entry : changes.getFiles()) {
+					if (resolver.resolve(entry.value).type() != Files.FileType.Absolute) {
+						Gdx.app.error(TAG, "Not received " + entry.value);
+						missing++;
+					}
+				}
+				Gdx.app.log(TAG, "Version " + changes.getVersion() + " ready to load, " + changes + ", "
+					+ (missing == 0 ? "all files received" : missing + " files missing"));
+				changes.clear();
+			}
+		}, true);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override public void run () {
+				platform.dispose();
+			}
+		}, TAG + "-shutdown"));
+		try {
+			Thread.sleep(Long.MAX_VALUE);
+		} catch (InterruptedException ignored) {}
+	}
+}
@@ -0,0 +1,128 @@
+package io.piotrjastrzebski.assetreload.desktop;
+
+import com.badlogic.gdx.Gdx;
+import io.piotrjastrzebski.assetreload.ChangeSet;
+import io.piotrjastrzebski.assetreload.ReloadTrace;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory tree for file changes
+ *
+ * Every directory is registered, directories that show up later are registered as they appear. Each batch of events
+ * is passed on as a {@link ChangeSet} with paths relative to the root.
+ */
+class RecursiveWatcher implements Runnable {
+	private static final String TAG = RecursiveWatcher.class.getSimpleName();
+	private final Path root;
+	private final Listener listener;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private WatchService service;
+
+	RecursiveWatcher (Path root, Listener listener) {
+		this.root = root;
+		this.listener = listener;
+	}
+
+	@Override public void run () {
+		try {
+			service = root.getFileSystem().newWatchService();
+			register(root, null);
+			while (!keys.isEmpty()) {
+				WatchKey key = service.take();
+				Path dir = keys.get(key);
+				ChangeSet changes = new ChangeSet();
+				changes.getTrace().mark(ReloadTrace.Stage.CHANGED);
+				for (WatchEvent<?> watchEvent : key.pollEvents()) {
+					WatchEvent.Kind kind = watchEvent.kind();
+					if (kind == OVERFLOW) {
+						// we lost some events, no idea what changed
+						Gdx.app.error(TAG, "Watcher overflow, treating everything as changed");
+						changes.setEverything(true);
+						changes.getTrace().drop();
+						continue;
+					}
+					if (dir == null) continue;
+					Path path = dir.resolve((Path)watchEvent.context());
+					if (kind == ENTRY_CREATE) {
+						if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+							// files could be there before we managed to register it
+							try {
+								register(path, changes);
+							} catch (NoSuchFileException ex) {
+								// gone before we got to it, along with whatever was in it
+								Gdx.app.log(TAG, "Directory removed before it was watched " + relative(path));
+							} catch (IOException ex) {
+								// part of it may not be watched, we can't tell what we missed
+								Gdx.app.error(TAG, "Can't watch " + relative(path) + ", treating everything as changed", ex);
+								changes.setEverything(true);
+							}
+						} else {
+							changes.add(ChangeSet.Kind.CREATED, relative(path));
+						}
+					} else if (kind == ENTRY_MODIFY) {
+						// we get these for directories when their contents change, we care only about files
+						if (!Files.isDirectory(path)) {
+							changes.add(ChangeSet.Kind.MODIFIED, relative(path));
+						}
+					} else if (kind == ENTRY_DELETE) {
+						changes.add(ChangeSet.Kind.DELETED, relative(path));
+					}
+				}
+				if (!key.reset()) {
+					keys.remove(key);
+				}
+				if (!changes.isEmpty()) {
+					listener.changed(changes);
+				}
+			}
+			Gdx.app.error(TAG, "Watcher stopped, nothing left to watch");
+		} catch (IOException ex) {
+			Gdx.app.error(TAG, "Watcher failed", ex);
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			Gdx.app.log(TAG, "Watcher thread stopped");
+		} finally {
+			if (service != null) {
+				try {
+					service.close();
+				} catch (IOException ignored) {}
+			}
+		}
+	}
+
+	/**
+	 * Registers directory and all directories inside
+	 *
+	 * @param created if not null, all files found are added as created
+	 */
+	private void register (Path start, final ChangeSet created) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) throws IOException {
+				keys.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override public FileVisitResult visitFile (Path file, BasicFileAttributes attrs) throws IOException {
+				if (created != null) created.add(ChangeSet.Kind.CREATED, relative(file));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private String relative (Path path) {
+		return root.relativize(path).toString().replace('\\', '/');
+	}
+
+	interface Listener {
+		/**
+		 * Called on watcher thread
+		 */
+		void changed (ChangeSet changes);
+	}
+}